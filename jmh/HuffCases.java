@@ -0,0 +1,84 @@
+import java.nio.ByteBuffer;
+
+import bench.Cases;
+
+/**
+ * The calls the benchmarks in the bench package make, see Cases. Each
+ * benchmark state loads its own instance, which keeps the processor and
+ * the code tables between calls. An instance is not thread-safe.
+ */
+
+public class HuffCases implements Cases {
+
+	private final HuffProcessor myProcessor = new HuffProcessor();
+	private final HuffLengths myBuilder = new HuffLengths();
+	private final int[] myLengths = new int[HuffProcessor.ALPH_SIZE + 1];
+	private HuffCodes myCodes;
+	private boolean myCanonical;
+
+	@Override
+	public void setCanonical(boolean canonical) {
+		myCanonical = canonical;
+		myProcessor.setCanonical(canonical);
+	}
+
+	@Override
+	public int compress(ByteBuffer src, ByteBuffer dst) {
+		return myProcessor.compress(src, dst);
+	}
+
+	@Override
+	public int decompress(ByteBuffer src, ByteBuffer dst) {
+		return myProcessor.decompress(src, dst);
+	}
+
+	@Override
+	public int writeBits(int width, int values, ByteBuffer dst) {
+		BitOutputStream out = new BitOutputStream(dst);
+		int value = 0x5a5a5a5a;
+		for (int k = 0; k < values; k++) {
+			out.writeBits(width, value);
+			value = value * 31 + k;
+		}
+		out.close();
+		return (int) ((out.bitsWritten() + BitOutputStream.BYTE_SIZE - 1) / BitOutputStream.BYTE_SIZE);
+	}
+
+	@Override
+	public long readBits(int width, int values, ByteBuffer src) {
+		// a count rather than waiting for -1, which is a valid 32-bit value
+		BitInputStream in = new BitInputStream(src);
+		long sum = 0;
+		for (int k = 0; k < values; k++) {
+			sum += in.readBits(width);
+		}
+		return sum;
+	}
+
+	@Override
+	public long[] counts(ByteBuffer data) {
+		long[] counts = HuffCounter.newCounts();
+		HuffCounter.count(data.duplicate(), counts);
+		counts[HuffProcessor.PSEUDO_EOF] = 1;
+		return counts;
+	}
+
+	@Override
+	public int buildCodes(long[] counts) {
+		myCodes = new HuffCodes(myBuilder.compute(counts, myLengths));
+		return myCodes.maxLength();
+	}
+
+	@Override
+	public long header(ByteBuffer dst) {
+		BitOutputStream out = new BitOutputStream(dst);
+		if (myCanonical) {
+			myCodes.writeLengths(out);
+		}
+		else {
+			myCodes.writeTree(HuffProcessor.BITS_PER_WORD + 1, out);
+		}
+		out.close();
+		return out.bitsWritten();
+	}
+}
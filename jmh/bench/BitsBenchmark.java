@@ -0,0 +1,77 @@
+package bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * readBits and writeBits throughput at each width, over BITS_BYTES bytes
+ * of values in a heap buffer. The megabytes secondary result is the
+ * throughput in MB/s of the bits read or written.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitsBenchmark {
+
+	private static final int BITS_BYTES = 4 << 20;
+
+	@Param({ "1", "3", "8", "13", "17", "24", "32" })
+	public int width;
+
+	private Cases myCases;
+	private int myValues;
+	private ByteBuffer myBits;
+
+	/**
+	 * Megabytes read or written, reported per second
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Bytes {
+		public double megabytes;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			megabytes = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		myCases = Cases.load();
+		myValues = (int) ((long) BITS_BYTES * Byte.SIZE / width);
+		myBits = ByteBuffer.allocate(BITS_BYTES + Long.BYTES);
+		myCases.writeBits(width, myValues, myBits.duplicate());
+	}
+
+	@Benchmark
+	public int writeBits(Bytes bytes) {
+		int written = myCases.writeBits(width, myValues, myBits.clear());
+		bytes.megabytes += written / Inputs.MB;
+		return written;
+	}
+
+	@Benchmark
+	public long readBits(Bytes bytes) {
+		bytes.megabytes += BITS_BYTES / Inputs.MB;
+		return myCases.readBits(width, myValues, myBits.clear());
+	}
+}
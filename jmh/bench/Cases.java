@@ -0,0 +1,80 @@
+package bench;
+
+import java.nio.ByteBuffer;
+
+/**
+ * What the benchmarks measure, implemented by HuffCases in the default
+ * package with the classes measured. JMH will not generate code for a
+ * benchmark in the default package and a class in a package cannot name
+ * one in the default package, so the benchmarks load HuffCases once, in
+ * setup, and call it through this interface. Calls to the one
+ * implementation are inlined like direct calls.
+ */
+
+public interface Cases {
+
+	/**
+	 * Load the implementation in the default package
+	 * @return a new HuffCases
+	 */
+	static Cases load() {
+		try {
+			return (Cases) Class.forName("HuffCases").getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("HuffCases is not on the class path", e);
+		}
+	}
+
+	/**
+	 * Use tree headers, or canonical headers of code lengths, for
+	 * compress and header
+	 * @param canonical is true for canonical headers
+	 */
+	void setCanonical(boolean canonical);
+
+	/**
+	 * Compress the remaining bytes of src into dst, as
+	 * HuffProcessor.compress(ByteBuffer, ByteBuffer)
+	 * @return number of bytes written
+	 */
+	int compress(ByteBuffer src, ByteBuffer dst);
+
+	/**
+	 * Decompress the remaining bytes of src into dst, as
+	 * HuffProcessor.decompress(ByteBuffer, ByteBuffer)
+	 * @return number of bytes written
+	 */
+	int decompress(ByteBuffer src, ByteBuffer dst);
+
+	/**
+	 * Write values width-bit values into dst through a BitOutputStream
+	 * @return number of bytes written
+	 */
+	int writeBits(int width, int values, ByteBuffer dst);
+
+	/**
+	 * Read values width-bit values from src through a BitInputStream
+	 * @return the sum of the values read
+	 */
+	long readBits(int width, int values, ByteBuffer src);
+
+	/**
+	 * Return the histogram of the remaining bytes of data, PSEUDO_EOF
+	 * counted once, ready to build codes from
+	 */
+	long[] counts(ByteBuffer data);
+
+	/**
+	 * Build the code lengths and canonical codes for counts
+	 * @return the length of the longest code
+	 */
+	int buildCodes(long[] counts);
+
+	/**
+	 * Write the header for the codes last built into dst, a tree or
+	 * code lengths as set by setCanonical
+	 * @return number of bits written
+	 */
+	long header(ByteBuffer dst);
+}
@@ -0,0 +1,97 @@
+package bench;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compress and decompress throughput for every input, with tree and
+ * canonical headers. Buffers are in memory, so disk speed is not part of
+ * the result. Besides operations per second, the megabytes secondary
+ * result is the throughput in MB/s of the uncompressed bytes, for both
+ * directions.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	@Param({ "h1.txt", "h2.txt", "m1.tif", "mandrill.tif", "melville.txt", "monarch.tif", "mtblanc.jpg",
+			"small.txt", "twain.txt", Inputs.UNIFORM, Inputs.SKEWED })
+	public String input;
+
+	@Param({ "tree", "canonical" })
+	public String header;
+
+	private Cases myCases;
+	private ByteBuffer myData;
+	private ByteBuffer myPacked;
+	private ByteBuffer myOut;
+
+	/**
+	 * Megabytes of uncompressed input, reported per second
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Bytes {
+		public double megabytes;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			megabytes = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		myCases = Cases.load();
+		myCases.setCanonical(header.equals("canonical"));
+		byte[] data = Inputs.load(input);
+		myData = ByteBuffer.wrap(data);
+		ByteBuffer packed = ByteBuffer.allocate(2 * data.length + 4096);
+		myCases.compress(myData.duplicate(), packed);
+		myPacked = packed.flip();
+		myOut = ByteBuffer.allocate(packed.capacity());
+		myCases.decompress(myPacked.duplicate(), myOut);
+		byte[] back = new byte[myOut.flip().remaining()];
+		myOut.get(back);
+		if (!Arrays.equals(data, back)) {
+			throw new IllegalStateException(input + " did not round-trip");
+		}
+	}
+
+	@Benchmark
+	public int compress(Bytes bytes) {
+		myData.rewind();
+		myOut.clear();
+		bytes.megabytes += myData.remaining() / Inputs.MB;
+		return myCases.compress(myData, myOut);
+	}
+
+	@Benchmark
+	public int decompress(Bytes bytes) {
+		myPacked.rewind();
+		myOut.clear();
+		int written = myCases.decompress(myPacked, myOut);
+		bytes.megabytes += written / Inputs.MB;
+		return written;
+	}
+}
@@ -0,0 +1,75 @@
+package bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to build codes from the counts of every input, and to write their
+ * header as a tree or as canonical code lengths. The headerBytes
+ * secondary result of header is the size of the header, which does not
+ * change from call to call. build makes the same codes for either kind
+ * of header.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodesBenchmark {
+
+	@Param({ "h1.txt", "h2.txt", "m1.tif", "mandrill.tif", "melville.txt", "monarch.tif", "mtblanc.jpg",
+			"small.txt", "twain.txt", Inputs.UNIFORM, Inputs.SKEWED })
+	public String input;
+
+	@Param({ "tree", "canonical" })
+	public String header;
+
+	private Cases myCases;
+	private long[] myCounts;
+	private ByteBuffer myOut;
+
+	/**
+	 * Size in bytes of the last header written
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Header {
+		public long headerBytes;
+	}
+
+	@Setup
+	public void setUp() {
+		myCases = Cases.load();
+		myCases.setCanonical(header.equals("canonical"));
+		myCounts = myCases.counts(ByteBuffer.wrap(Inputs.load(input)));
+		myCases.buildCodes(myCounts);
+		myOut = ByteBuffer.allocate(1 << 12);
+	}
+
+	@Benchmark
+	public int build() {
+		return myCases.buildCodes(myCounts);
+	}
+
+	@Benchmark
+	public long header(Header size) {
+		long bits = myCases.header(myOut.clear());
+		size.headerBytes = (bits + Byte.SIZE - 1) / Byte.SIZE;
+		return bits;
+	}
+}
@@ -0,0 +1,74 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * The inputs benchmarked: files in the data directory, named as they are
+ * there, and two synthetic inputs of SYNTHETIC_SIZE bytes, uniform random
+ * bytes and skewed bytes whose frequencies fall off geometrically. The
+ * data directory is the huff.data system property, by default data in
+ * the directory the benchmarks run in.
+ */
+
+final class Inputs {
+
+	static final String UNIFORM = "synthetic-uniform";
+	static final String SKEWED = "synthetic-skewed";
+	static final int SYNTHETIC_SIZE = 4 << 20;
+	static final double MB = 1 << 20;
+
+	private static final int ALPH_SIZE = 256;
+
+	private Inputs() {
+	}
+
+	/**
+	 * Return the bytes of the input called name
+	 * @param name is a file in the data directory or a synthetic input
+	 * @return a new array of the input's bytes
+	 */
+	static byte[] load(String name) {
+		if (name.equals(UNIFORM)) {
+			return uniform(SYNTHETIC_SIZE);
+		}
+		if (name.equals(SKEWED)) {
+			return skewed(SYNTHETIC_SIZE);
+		}
+		File file = new File(System.getProperty("huff.data", "data"), name);
+		try {
+			return Files.readAllBytes(file.toPath());
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+	}
+
+	/**
+	 * Return size random bytes, every value equally likely
+	 */
+	private static byte[] uniform(int size) {
+		byte[] data = new byte[size];
+		new Random(1).nextBytes(data);
+		return data;
+	}
+
+	/**
+	 * Return size random bytes where each value is a quarter as likely as
+	 * the one before it, so a few values dominate and rare ones get long codes
+	 */
+	private static byte[] skewed(int size) {
+		byte[] data = new byte[size];
+		Random random = new Random(2);
+		for (int k = 0; k < size; k++) {
+			int value = 0;
+			while (value < ALPH_SIZE - 1 && random.nextInt(4) == 0) {
+				value += 1;
+			}
+			data[k] = (byte) value;
+		}
+		return data;
+	}
+}
@@ -19,6 +19,7 @@ public class BitInputStream extends InputStream {
 	private static final int INT_SIZE = 32;
 	private static final int BIT_BUFFER_SIZE = 8;
 	private static final int BUFFER_SIZE = 8192;
+	private static final int MAP_SIZE = 1 << 28;
 	
 	private static final long bitMask[] = { 0x00, 0x01, 0x03, 0x07, 0x0f, 0x1f, 0x3f, 0x7f, 0xff, 0x1ff, 0x3ff, 0x7ff,
 			0xfff, 0x1fff, 0x3fff, 0x7fff, 0xffff, 0x1ffff, 0x3ffff, 0x7ffff, 0xfffff, 0x1fffff, 0x3fffff, 0x7fffff,
@@ -33,16 +34,46 @@ public class BitInputStream extends InputStream {
 	private InputStream source;
 	private ReadableByteChannel input;
 	private ByteBuffer buffer;
-	private int bitsRead, available, limit;
+	private long bitsRead;
+	private int available;
 	private long bitBuffer;
+	private long start;
+	private boolean marked;
+	private FileChannel mapped;
+	private long mapPosition;
+	private ByteBuffer wrapped;
+	private boolean timed;
+	private long ioNanos;
 	
 	public BitInputStream(String filePath) {
 		this(new File(filePath));
 	}
 	
 	public BitInputStream(File fileSource) {
+		this(fileSource, false);
+	}
+	
+	/**
+	 * Create a BitInputStream that reads a file.
+	 * @param fileSource is the file read
+	 * @param map is true to read the file through FileChannel.map rather
+	 * than copying it into a buffer, which avoids a read call and a copy
+	 * for every buffer of input. Files are mapped 256 MB at a time.
+	 */
+	public BitInputStream(File fileSource, boolean map) {
 		try {
-			initialize(new FileInputStream(fileSource));
+			if (map) {
+				source = new FileInputStream(fileSource);
+				mapped = ((FileInputStream) source).getChannel();
+				input = mapped;
+				start = 0;
+				marked = false;
+				buffer = ByteBuffer.allocate(0);
+				clearBuffers();
+			}
+			else {
+				initialize(new FileInputStream(fileSource), true, BUFFER_SIZE, false);
+			}
 		}
 		catch (FileNotFoundException fnf) {
 			throw new RuntimeException(fnf);
@@ -50,34 +81,194 @@ public class BitInputStream extends InputStream {
 	}
 	
 	public BitInputStream(InputStream in) {
-		initialize(in);
+		this(in, true);
+	}
+	
+	/**
+	 * Create a BitInputStream from an InputStream.
+	 * @param in is the source of bits
+	 * @param resettable is false if reset() will never be called. A
+	 * resettable stream that is not a FileInputStream keeps every byte
+	 * read on the heap so it can be read again, a stream that is not
+	 * resettable keeps only one buffer.
+	 */
+	public BitInputStream(InputStream in, boolean resettable) {
+		this(in, resettable, BUFFER_SIZE, false);
+	}
+	
+	/**
+	 * Create a BitInputStream from an InputStream with a given buffer.
+	 * @param in is the source of bits
+	 * @param resettable is false if reset() will never be called
+	 * @param bufferSize is the number of bytes read from in at a time
+	 * @param direct is true to read into a direct buffer, which saves
+	 * a copy when in is a FileInputStream
+	 */
+	public BitInputStream(InputStream in, boolean resettable, int bufferSize, boolean direct) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("buffer size must be positive: " + bufferSize);
+		}
+		initialize(in, resettable, bufferSize, direct);
+	}
+	
+	/**
+	 * Create a BitInputStream that reads the remaining bytes of a buffer
+	 * in place, with no copy. Heap, direct and mapped buffers all work,
+	 * whatever their byte order. The buffer's position is not changed;
+	 * reset() goes back to the position the buffer had.
+	 * @param source holds the bytes read
+	 */
+	public BitInputStream(ByteBuffer source) {
+		wrapped = source;
+		start = -1;
+		marked = false;
+		clearBuffers();
 	}
 	
-	private void initialize(InputStream in) {
-		source = new BufferedInputStream(in);
-		source.mark(Integer.MAX_VALUE);
+	/**
+	 * Start again on the remaining bytes of source, as if this stream,
+	 * made with BitInputStream(ByteBuffer), had just been made for it.
+	 * The view of the buffer is kept when source is the buffer read
+	 * before, so reading one buffer again and again allocates nothing.
+	 * @param source holds the bytes read
+	 */
+	void wrap(ByteBuffer source) {
+		if (wrapped == null) {
+			throw new IllegalStateException("stream does not read a buffer");
+		}
+		if (source != wrapped) {
+			wrapped = source;
+			buffer = null;
+		}
+		timed = false;
+		ioNanos = 0;
+		clearBuffers();
+	}
+	
+	/**
+	 * Create a BitInputStream that reads a channel through a direct
+	 * buffer. The channel must be in blocking mode. A FileChannel can be
+	 * reset, other channels cannot. close() leaves the channel open.
+	 * @param channel is the source of bits
+	 */
+	public BitInputStream(ReadableByteChannel channel) {
+		input = channel;
+		start = -1;
+		marked = false;
+		if (channel instanceof FileChannel) {
+			try {
+				start = ((FileChannel) channel).position();
+			}
+			catch (IOException io) {
+				throw new RuntimeException(io);
+			}
+		}
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		clearBuffers();
+	}
+	
+	private void initialize(InputStream in, boolean resettable, int bufferSize, boolean direct) {
+		start = -1;
+		marked = false;
+		if (in instanceof FileInputStream) {
+			// files are rewound by repositioning the channel, nothing is kept
+			source = in;
+			input = ((FileInputStream) in).getChannel();
+			try {
+				start = ((FileChannel) input).position();
+			}
+			catch (IOException io) {
+				throw new RuntimeException(io);
+			}
+		}
+		else if (resettable) {
+			source = new BufferedInputStream(in);
+			source.mark(Integer.MAX_VALUE);
+			marked = true;
+			input = Channels.newChannel(source);
+		}
+		else {
+			source = in;
+			input = Channels.newChannel(source);
+		}
+		buffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+		clearBuffers();
+	}
+	
+	private void clearBuffers() {
 		bitsRead = available = 0;
 		bitBuffer = 0;
-		limit = BUFFER_SIZE;
-		input = Channels.newChannel(source);
-		buffer = ByteBuffer.allocate(BUFFER_SIZE);
-		buffer.position(BUFFER_SIZE);
+		mapPosition = 0;
+		if (wrapped != null) {
+			// a view of the caller's buffer, so reading never moves it,
+			// big-endian like every other buffer read here
+			if (buffer == null) {
+				buffer = wrapped.duplicate().order(ByteOrder.BIG_ENDIAN);
+			}
+			else {
+				buffer.limit(wrapped.limit());
+				buffer.position(wrapped.position());
+			}
+			bitsRead = BYTE_SIZE * (long) buffer.remaining();
+			return;
+		}
+		buffer.position(buffer.limit());
 	}
 	
-	public int bitsRead() {
+	/**
+	 * Return the number of bits taken from the source so far, which runs
+	 * ahead of the bits returned by up to a buffer
+	 * @return bits read from the source
+	 */
+	public long bitsRead() {
 		return bitsRead;
 	}
 	
+	/**
+	 * Return the number of bits returned so far by the read calls
+	 * @return bits consumed since the stream was created or reset
+	 */
+	public long bitsUsed() {
+		return bitsRead - BYTE_SIZE * (long) buffer.remaining() - available;
+	}
+	
+	/**
+	 * Time the reads from the source, see ioNanos. Off by default, so
+	 * an untimed stream never reads the clock.
+	 * @param timed is true to time reads
+	 */
+	public void setTimed(boolean timed) {
+		this.timed = timed;
+	}
+	
+	/**
+	 * Return the time spent waiting for the source while timed. A mapped
+	 * file is read by page faults as its bytes are used, which this does
+	 * not see.
+	 * @return nanoseconds spent reading the source
+	 */
+	public long ioNanos() {
+		return ioNanos;
+	}
+	
 	public void reset() {
 		try {
-			source.reset();
-			source.mark(Integer.MAX_VALUE);
-			bitsRead = available = 0;
-			bitBuffer = 0;
-			limit = BUFFER_SIZE;
-			input = Channels.newChannel(source);
-			buffer = ByteBuffer.allocate(BUFFER_SIZE);
-			buffer.position(BUFFER_SIZE);
+			if (mapped != null) {
+				buffer = ByteBuffer.allocate(0);
+			}
+			else if (start >= 0) {
+				((FileChannel) input).position(start);
+			}
+			else if (marked) {
+				source.reset();
+				source.mark(Integer.MAX_VALUE);
+				input = Channels.newChannel(source);
+			}
+			else if (wrapped == null) {
+				throw new HuffException("stream was not created resettable");
+			}
+			// a wrapped buffer starts again from the caller's position
+			clearBuffers();
 		}
 		catch (IOException io) {
 			throw new RuntimeException(io);
@@ -86,6 +277,10 @@ public class BitInputStream extends InputStream {
 	
 	public void close() {
 		try {
+			if (source == null) {
+				// buffers and channels belong to the caller
+				return;
+			}
 			source.close();
 			input.close();
 		}
@@ -104,56 +299,236 @@ public class BitInputStream extends InputStream {
 		if (numBits > INT_SIZE || numBits < 1) {
 			throw new RuntimeException("Illegal argument: numBits must be on [1, 32]");
 		}
-			
-		int value = 0;
 		
 		if (numBits > available) {
-			value = (int) bitBuffer;
-			numBits -= available;
-			value <<= numBits;
-			if (!fillBitBuffer()) {
+			// bits left over stay in the bit buffer, so a short read from
+			// the source or a buffer ending mid-word does not lose them
+			topUpBitBuffer(numBits);
+			if (numBits > available) {
 				return -1;
 			}
 		}
 		
-		if (numBits > available) {
+		int value = (int) (bitBuffer >>> (available - numBits));
+		available -= numBits;
+		bitBuffer &= bitMask[available];
+		return value;
+	}
+	
+	/**
+	 * Return the next numBits bits without consuming them. Near the end
+	 * of the stream, bits past the end are returned as 0s, so a decoder
+	 * can always look up a full table index; skipBits tells whether the
+	 * bits were really there.
+	 * @param numBits is the number of bits returned, in [1, 32]
+	 * @return the bits, or -1 if no bits are left
+	 */
+	public int peekBits(int numBits) {
+		if (numBits > INT_SIZE || numBits < 1) {
+			throw new RuntimeException("Illegal argument: numBits must be on [1, 32]");
+		}
+		if (numBits > available && !topUpBitBuffer(numBits)) {
 			return -1;
 		}
-		
+		if (numBits > available) {
+			return (int) (bitBuffer << (numBits - available));
+		}
+		return (int) (bitBuffer >>> (available - numBits));
+	}
+	
+	/**
+	 * Consume bits, typically after peekBits has shown what they are
+	 * @param numBits is the number of bits skipped, in [1, 32]
+	 * @return true if they were skipped, false if fewer are left, in which
+	 * case nothing is consumed
+	 */
+	public boolean skipBits(int numBits) {
+		if (numBits > INT_SIZE || numBits < 1) {
+			throw new RuntimeException("Illegal argument: numBits must be on [1, 32]");
+		}
+		if (numBits > available) {
+			topUpBitBuffer(numBits);
+			if (numBits > available) {
+				return false;
+			}
+		}
+		available -= numBits;
+		bitBuffer &= bitMask[available];
+		return true;
+	}
+	
+	/**
+	 * Read up to 64 bits
+	 * @param numBits is the number of bits read, in [1, 64]
+	 * @return the bits read, right-aligned
+	 * @throws HuffException if fewer than numBits bits are left
+	 */
+	public long readLong(int numBits) {
+		if (numBits > 2 * INT_SIZE || numBits < 1) {
+			throw new RuntimeException("Illegal argument: numBits must be on [1, 64]");
+		}
+		long value = 0;
+		if (numBits > INT_SIZE) {
+			int high = numBits - INT_SIZE;
+			if (high > available) {
+				topUpBitBuffer(high);
+			}
+			if (high > available) {
+				throw new HuffException("bad input, stream ends within a long");
+			}
+			value = (bitBuffer >>> (available - high)) << INT_SIZE;
+			available -= high;
+			bitBuffer &= bitMask[available];
+			numBits = INT_SIZE;
+		}
+		if (numBits > available) {
+			topUpBitBuffer(numBits);
+		}
+		if (numBits > available) {
+			throw new HuffException("bad input, stream ends within a long");
+		}
 		value |= bitBuffer >>> (available - numBits);
-		bitBuffer &= bitMask[available - numBits];
 		available -= numBits;
-		//bitsRead += numBits;
+		bitBuffer &= bitMask[available];
 		return value;
 	}
 	
-	private boolean fillBitBuffer() {
-		if (!buffer.hasRemaining()) {
-			if (!fillBuffer()) {
-				return false;
+	/**
+	 * Read bytes into b. When the stream is at a byte boundary, bytes are
+	 * copied straight from the buffer (or, for a large read, straight from
+	 * a file or channel into b) rather than 8 bits at a time.
+	 * @param b receives the bytes
+	 * @param off is where the first byte goes
+	 * @param len is the most bytes read
+	 * @return number of bytes read, less than len only at the end of the
+	 * stream, or -1 if len &gt; 0 and no bytes are left
+	 */
+	public int readBytes(byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		int n = 0;
+		if (available % BYTE_SIZE != 0) {
+			for (; n < len; n++) {
+				int bits = readBits(BYTE_SIZE);
+				if (bits == -1)
+					break;
+				b[off + n] = (byte) bits;
+			}
+			return n == 0 && len > 0 ? -1 : n;
+		}
+		// whole bytes still in the bit buffer come first
+		for (; n < len && available > 0; n++) {
+			available -= BYTE_SIZE;
+			b[off + n] = (byte) (bitBuffer >>> available);
+			bitBuffer &= bitMask[available];
+		}
+		while (n < len) {
+			if (!buffer.hasRemaining()) {
+				if (len - n >= buffer.capacity() && input != null && mapped == null) {
+					n += readDirect(b, off + n, len - n);
+					break;
+				}
+				if (!fillBuffer()) {
+					break;
+				}
+			}
+			int length = Math.min(len - n, buffer.remaining());
+			buffer.get(b, off + n, length);
+			n += length;
+		}
+		return n == 0 && len > 0 ? -1 : n;
+	}
+	
+	/**
+	 * Read from the channel straight into b[off, off + len), bypassing the
+	 * buffer, until len bytes are read or the channel ends
+	 * @return number of bytes read
+	 */
+	private int readDirect(byte[] b, int off, int len) {
+		long begin = timed ? System.nanoTime() : 0;
+		try {
+			ByteBuffer target = ByteBuffer.wrap(b, off, len);
+			while (target.hasRemaining() && input.read(target) != -1) {
+				// a channel may return fewer bytes than asked for
+			}
+			int read = target.position() - off;
+			bitsRead += BYTE_SIZE * (long) read;
+			return read;
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+		finally {
+			if (timed) {
+				ioNanos += System.nanoTime() - begin;
 			}
 		}
-		
-		available = BYTE_SIZE * Math.min(BIT_BUFFER_SIZE, limit - buffer.position());
-		bitBuffer = buffer.getLong();
-		bitBuffer >>>= (int) Math.pow(2, BIT_BUFFER_SIZE) - available;
-		return true;
+	}
+	
+	/**
+	 * Add whole bytes to the bit buffer, keeping the bits it holds, until
+	 * it holds at least numBits bits. Bytes already in the buffer are
+	 * added while they fit, the source is only read for bits needed.
+	 * @return false if no bits are left at all
+	 */
+	private boolean topUpBitBuffer(int numBits) {
+		while (available <= (BIT_BUFFER_SIZE - 1) * BYTE_SIZE) {
+			if (!buffer.hasRemaining() && (available >= numBits || !fillBuffer())) {
+				break;
+			}
+			if (available == 0 && buffer.remaining() >= BIT_BUFFER_SIZE) {
+				bitBuffer = buffer.getLong();
+				available = BIT_BUFFER_SIZE * BYTE_SIZE;
+			}
+			else if (available <= INT_SIZE && buffer.remaining() >= INT_SIZE / BYTE_SIZE) {
+				bitBuffer = (bitBuffer << INT_SIZE) | (buffer.getInt() & 0xffffffffL);
+				available += INT_SIZE;
+			}
+			else {
+				bitBuffer = (bitBuffer << BYTE_SIZE) | (buffer.get() & 0xff);
+				available += BYTE_SIZE;
+			}
+		}
+		return available > 0;
 	}
 	
 	private boolean fillBuffer() {
+		if (wrapped != null) {
+			return false;
+		}
+		long begin = timed ? System.nanoTime() : 0;
 		try {
+			if (mapped != null) {
+				long size = mapped.size();
+				if (mapPosition >= size) {
+					return false;
+				}
+				int length = (int) Math.min(MAP_SIZE, size - mapPosition);
+				buffer = mapped.map(FileChannel.MapMode.READ_ONLY, mapPosition, length);
+				mapPosition += length;
+				bitsRead += BYTE_SIZE * (long) length;
+				return true;
+			}
 			buffer.clear();
-			limit = input.read(buffer);
+			int limit;
+			do {
+				limit = input.read(buffer);
+			} while (limit == 0);
 			buffer.flip();
 			if (limit == -1) {
 				return false;
 			}
-			bitsRead += 8*limit;
-			buffer.limit(limit + (BIT_BUFFER_SIZE - limit % BIT_BUFFER_SIZE) % BIT_BUFFER_SIZE);
+			bitsRead += BYTE_SIZE * (long) limit;
 			return true;
 		}
 		catch (IOException io) {
 			throw new RuntimeException(io);
 		}
+		finally {
+			if (timed) {
+				ioNanos += System.nanoTime() - begin;
+			}
+		}
 	}
 }
\ No newline at end of file
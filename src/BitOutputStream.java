@@ -15,8 +15,12 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
 
 public class BitOutputStream extends OutputStream {
@@ -24,6 +28,7 @@ public class BitOutputStream extends OutputStream {
 	public static final int BYTE_SIZE = 8;
 	private static final int INT_SIZE = 32;
 	private static final int BUFFER_SIZE = 8192;
+	private static final int MIN_MAP_SIZE = 1 << 20;
 	
 	private static final long[] bitMask = { 0x00, 0x01, 0x03, 0x07, 0x0f, 0x1f, 0x3f, 0x7f, 0xff, 0x1ff, 0x3ff, 0x7ff,
 			0xfff, 0x1fff, 0x3fff, 0x7fff, 0xffff, 0x1ffff, 0x3ffff, 0x7ffff, 0xfffff, 0x1fffff, 0x3fffff, 0x7fffff,
@@ -36,10 +41,16 @@ public class BitOutputStream extends OutputStream {
 			0x3fffffffffffffffl, 0x7fffffffffffffffl, 0xffffffffffffffffl };
 	
 	private OutputStream source;
-	private int bitsWritten, available;
+	private long bitsWritten;
+	private int available;
 	private long bitBuffer;
 	private ByteBuffer buffer;
 	private WritableByteChannel output;
+	private FileChannel mapped;
+	private long mapPosition, mapSize;
+	private ByteBuffer wrapped;
+	private boolean timed;
+	private long ioNanos;
 	
 	/**
 	 * Construct stream from a path to a file
@@ -57,7 +68,7 @@ public class BitOutputStream extends OutputStream {
      */
 	public BitOutputStream(File fileSource) {
 		try {
-			initialize(new FileOutputStream(fileSource));
+			initialize(new FileOutputStream(fileSource), BUFFER_SIZE, false);
 		}
 		catch (FileNotFoundException fnf) {
 			throw new RuntimeException(fnf);
@@ -65,21 +76,132 @@ public class BitOutputStream extends OutputStream {
 	}
 	
 
+	/**
+	 * Construct stream that writes a file through FileChannel.map
+	 * rather than a buffer copied by write calls. The file is mapped
+	 * expectedSize bytes at a time (at least 1 MB), so a good estimate
+	 * of the output size means a single mapping. The file is cut to the
+	 * number of bytes actually written when the stream is closed.
+	 * @param fileSource is a File ready for writing
+	 * @param expectedSize is the expected number of bytes written
+	 * @throws RuntimeException if File can't be open
+	 */
+	public BitOutputStream(File fileSource, long expectedSize) {
+		try {
+			RandomAccessFile file = new RandomAccessFile(fileSource, "rw");
+			file.setLength(0);
+			source = new OutputStream() {
+				@Override
+				public void write(int b) {
+					throw new HuffException("mapped stream has no byte output");
+				}
+				@Override
+				public void close() throws IOException {
+					file.close();
+				}
+			};
+			mapped = file.getChannel();
+			output = mapped;
+			mapPosition = 0;
+			mapSize = Math.max(MIN_MAP_SIZE, (expectedSize + BYTE_SIZE - 1) / BYTE_SIZE * BYTE_SIZE);
+			bitsWritten = 0;
+			available = 64;
+			bitBuffer = 0;
+			buffer = mapped.map(FileChannel.MapMode.READ_WRITE, 0, mapSize);
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+	}
+
+	/**
+	 * Construct stream that writes into a caller's buffer in place,
+	 * starting at its position. Heap and direct buffers both work,
+	 * whatever their byte order. The buffer's position is moved past the
+	 * bytes written by flush() and close(), and is left alone if the
+	 * buffer fills up.
+	 * @param target is where bits are written
+	 * @throws BufferOverflowException from writeBits, flush or close if
+	 * target has too little room
+	 */
+	public BitOutputStream(ByteBuffer target) {
+		wrapped = target;
+		bitsWritten = 0;
+		available = 64;
+		bitBuffer = 0;
+		buffer = target.duplicate().order(ByteOrder.BIG_ENDIAN);
+	}
+	
+	/**
+	 * Start again at the position of target, as if this stream, made
+	 * with BitOutputStream(ByteBuffer), had just been made for it. The
+	 * view of the buffer is kept when target is the buffer written
+	 * before, so writing one buffer again and again allocates nothing.
+	 * @param target is where bits are written
+	 */
+	void wrap(ByteBuffer target) {
+		if (wrapped == null) {
+			throw new IllegalStateException("stream does not write a buffer");
+		}
+		if (target != wrapped) {
+			wrapped = target;
+			buffer = target.duplicate().order(ByteOrder.BIG_ENDIAN);
+		}
+		else {
+			buffer.limit(target.limit());
+			buffer.position(target.position());
+		}
+		bitsWritten = 0;
+		available = 64;
+		bitBuffer = 0;
+		timed = false;
+		ioNanos = 0;
+	}
+	
+	/**
+	 * Construct stream that writes to a channel through a direct buffer.
+	 * The channel must be in blocking mode. close() flushes but leaves
+	 * the channel open.
+	 * @param channel is where bits are written
+	 */
+	public BitOutputStream(WritableByteChannel channel) {
+		bitsWritten = 0;
+		available = 64;
+		bitBuffer = 0;
+		output = channel;
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	}
+	
 	/**
 	 * Create a BitOuputStream from an outputstream
 	 * @param out is where bits will be written/output
 	 */
 	public BitOutputStream(OutputStream out) {
-		initialize(out);
+		this(out, BUFFER_SIZE, false);
+	}
+	
+	/**
+	 * Create a BitOuputStream from an outputstream with a given buffer
+	 * @param out is where bits will be written/output
+	 * @param bufferSize is the number of bytes written to out at a time,
+	 * rounded up to a multiple of 8
+	 * @param direct is true to fill a direct buffer, which saves a copy
+	 * when out is a FileOutputStream
+	 */
+	public BitOutputStream(OutputStream out, int bufferSize, boolean direct) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("buffer size must be positive: " + bufferSize);
+		}
+		initialize(out, (bufferSize + BYTE_SIZE - 1) / BYTE_SIZE * BYTE_SIZE, direct);
 	}
 	
-	private void initialize(OutputStream out) {
+	private void initialize(OutputStream out, int bufferSize, boolean direct) {
 		source = out;
 		bitsWritten = 0;
 		available = 64;
 		bitBuffer = 0;
 		output = Channels.newChannel(source);
-		buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		buffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
 	}
 	
 	/**
@@ -87,17 +209,56 @@ public class BitOutputStream extends OutputStream {
 	 * of this BitOUtputStream.
 	 * @return number of bits written
 	 */
-	public int bitsWritten() {
+	public long bitsWritten() {
 		return bitsWritten;
 	}
 	
+	/**
+	 * Time the writes to the destination, see ioNanos. Off by default,
+	 * so an untimed stream never reads the clock.
+	 * @param timed is true to time writes
+	 */
+	public void setTimed(boolean timed) {
+		this.timed = timed;
+	}
+	
+	/**
+	 * Return the time spent writing buffers out, and flushing and closing
+	 * the destination, while timed
+	 * @return nanoseconds spent writing
+	 */
+	public long ioNanos() {
+		return ioNanos;
+	}
+	
 	/**
 	 * Flush any unwritten bits, called when .close() is called,
-	 * but can be called explicitly as well.
+	 * but can be called explicitly as well. A partial last byte is padded
+	 * with zeros and bits written after a flush start on the next byte.
+	 * An OutputStream written to is flushed too.
 	 */
 	public void flush() {
 		emptyBitBufferExact();
-		emptyBuffer();
+		if (wrapped != null) {
+			wrapped.position(buffer.position());
+		}
+		else if (mapped == null) {
+			emptyBuffer();
+			if (source != null) {
+				long begin = timed ? System.nanoTime() : 0;
+				try {
+					source.flush();
+				}
+				catch (IOException io) {
+					throw new RuntimeException(io);
+				}
+				finally {
+					if (timed) {
+						ioNanos += System.nanoTime() - begin;
+					}
+				}
+			}
+		}
 	}
 	
 	/**
@@ -105,15 +266,27 @@ public class BitOutputStream extends OutputStream {
 	 * by this stream
 	 */
 	public void close() {
+		flush();
+		long begin = timed ? System.nanoTime() : 0;
 		try {
-			flush();
+			if (mapped != null) {
+				mapped.truncate(mapPosition + buffer.position());
+			}
+			if (source == null) {
+				// buffers and channels belong to the caller
+				return;
+			}
 			output.close();
 			source.close();
 		}
 		catch (IOException io) {
 			throw new RuntimeException(io);
 		}
-		
+		finally {
+			if (timed) {
+				ioNanos += System.nanoTime() - begin;
+			}
+		}
 	}
 	
 	/**
@@ -151,30 +324,98 @@ public class BitOutputStream extends OutputStream {
 		available -= numBits;
 	}
 	
+	/**
+	 * Writes the right-most/least significant numBits of a long
+	 * to this stream
+	 * @param numBits is number of bits written, in [1, 64]
+	 * @param value is source of bits written
+	 */
+	public void writeBits(int numBits, long value) {
+		if (numBits > 2 * INT_SIZE || numBits < 1) {
+			throw new RuntimeException("Illegal argument: numBits must be on [1, 64]");
+		}
+		if (numBits > INT_SIZE) {
+			writeBits(numBits - INT_SIZE, (int) (value >>> INT_SIZE));
+			numBits = INT_SIZE;
+		}
+		writeBits(numBits, (int) value);
+	}
+	
+	/**
+	 * Writes bytes to this stream. When the stream is at a byte boundary
+	 * the bytes are copied straight into the buffer rather than 8 bits
+	 * at a time.
+	 * @param b holds the bytes written
+	 * @param off is the index of the first byte written
+	 * @param len is the number of bytes written
+	 */
+	public void writeBytes(byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (available % BYTE_SIZE != 0) {
+			for (int k = off; k < off + len; k++) {
+				writeBits(BYTE_SIZE, b[k]);
+			}
+			return;
+		}
+		emptyBitBufferExact();
+		bitBuffer = 0;
+		bitsWritten += BYTE_SIZE * (long) len;
+		while (len > 0) {
+			if (!buffer.hasRemaining()) {
+				emptyBuffer();
+			}
+			int length = Math.min(len, buffer.remaining());
+			buffer.put(b, off, length);
+			off += length;
+			len -= length;
+		}
+	}
+	
 	private void emptyBitBuffer() {
 		if (!buffer.hasRemaining()) {
 			emptyBuffer();
 		}
 		
-		buffer.putLong(bitBuffer);
+		if (buffer.remaining() >= BYTE_SIZE) {
+			buffer.putLong(bitBuffer);
+		}
+		else {
+			// the buffer does not end on a long, e.g. a caller's buffer
+			// or a mapping after flush(), so the full long goes bytewise
+			available = 0;
+			emptyBitBufferExact();
+		}
 		bitBuffer = 0;
 		available = 64;
 	}
 	
 	private void emptyBitBufferExact() {
-		if (!buffer.hasRemaining()) {
-			emptyBuffer();
-		}
-		
 		while (available < 64) {
+			if (!buffer.hasRemaining()) {
+				emptyBuffer();
+			}
 			buffer.put((byte) (bitBuffer >>> 56));
 			bitBuffer <<= 8;
 			available += 8;
 		}
+		// a partial byte went out padded, the next bits start a new byte
+		available = 64;
 	}
 	
 	private void emptyBuffer() {
+		if (wrapped != null) {
+			throw new BufferOverflowException();
+		}
+		long begin = timed ? System.nanoTime() : 0;
 		try {
+			if (mapped != null) {
+				// move on to the next region, the file grows to cover it
+				mapPosition += buffer.position();
+				buffer = mapped.map(FileChannel.MapMode.READ_WRITE, mapPosition, mapSize);
+				return;
+			}
 			buffer.flip();
 			output.write(buffer);
 			buffer.clear();
@@ -182,5 +423,10 @@ public class BitOutputStream extends OutputStream {
 		catch (IOException io) {
 			throw new RuntimeException(io);
 		}
+		finally {
+			if (timed) {
+				ioNanos += System.nanoTime() - begin;
+			}
+		}
 	}
 }
\ No newline at end of file
@@ -1,12 +1,41 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
-import javax.swing.ProgressMonitorInputStream;
 import javax.swing.SwingUtilities;
 
+/**
+ * Compares two files. Run with no arguments to choose the files in a
+ * dialog; run as
+ * <pre>
+ *   java Diff [-threads n] file1 file2
+ * </pre>
+ * to compare them without any windows, printing the offset of the first
+ * byte that differs. The exit status is 0 if the files are the same, 1
+ * if they differ and 2 on error.
+ * <P>
+ * Files are compared by firstMismatch, which maps both files into memory
+ * range by range and compares the mapped buffers a chunk at a time with
+ * ByteBuffer.mismatch, with no copying and rather than reading one byte
+ * per readBits call, so large archives are checked at close to the speed
+ * the disk delivers them.
+ */
 public class Diff
 {
+    public static final int RANGE_SIZE = 1 << 26;
+    private static final int CHUNK_SIZE = 1 << 20;
+    
 	private static JFileChooser ourChooser = new JFileChooser();
 	static {
         ourChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
@@ -23,35 +52,99 @@ public class Diff
                 JOptionPane.INFORMATION_MESSAGE);
     }
     public static boolean doDiffer(File[] files){
-        try {
-            ProgressMonitorInputStream stream1 = 
-                new ProgressMonitorInputStream(
-                        null,
-                        "reading "+files[0].getName(),
-                        new FileInputStream(files[0]));
-            ProgressMonitorInputStream stream2 = 
-                new ProgressMonitorInputStream(
-                        null,
-                        "reading "+files[1].getName(),
-                        new FileInputStream(files[1]));
-            BitInputStream b1 = new BitInputStream(stream1);
-            BitInputStream b2 = new BitInputStream(stream2);
-            while (true) {
-                int x = b1.readBits(8);
-                int y = b2.readBits(8);
-                if (x == -1) return y == -1;
-                if (y == -1) return false;
-                if (x != y) return false;
+        return firstMismatch(files[0], files[1], 1) < 0;
+    }
+    
+    /**
+     * Find the first byte at which two files differ. Ranges of RANGE_SIZE
+     * bytes are mapped from both files and compared in chunks; with more
+     * than one thread, ranges are compared in parallel and ranges past a
+     * mismatch already found are skipped.
+     * @param first is one file compared
+     * @param second is the other file compared
+     * @param threads is the number of threads comparing ranges
+     * @return offset of the first byte that differs, the length of the
+     * shorter file if it is a prefix of the longer, or -1 if the files
+     * are the same
+     */
+    public static long firstMismatch(File first, File second, int threads) {
+        try (FileChannel a = FileChannel.open(first.toPath(), StandardOpenOption.READ);
+             FileChannel b = FileChannel.open(second.toPath(), StandardOpenOption.READ)) {
+            long common = Math.min(a.size(), b.size());
+            long different = a.size() == b.size() ? -1 : common;
+            AtomicLong found = new AtomicLong(Long.MAX_VALUE);
+            
+            if (threads <= 1 || common <= RANGE_SIZE) {
+                for (long start = 0; start < common; start += RANGE_SIZE) {
+                    long at = compareRange(a, b, start, Math.min(common, start + RANGE_SIZE), found);
+                    if (at >= 0) {
+                        return at;
+                    }
+                }
+                return different;
             }
-            // never reached
             
-        } catch (IOException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(null,"trouble reading","Diff Error",
-                    JOptionPane.ERROR_MESSAGE);
-            return false;
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Long>> ranges = new ArrayList<>();
+                for (long start = 0; start < common; start += RANGE_SIZE) {
+                    long from = start;
+                    long to = Math.min(common, start + RANGE_SIZE);
+                    ranges.add(pool.submit(() -> compareRange(a, b, from, to, found)));
+                }
+                // ranges finish in any order, the earliest mismatch wins
+                long at = Long.MAX_VALUE;
+                for (Future<Long> range : ranges) {
+                    long result = range.get();
+                    if (result >= 0) {
+                        at = Math.min(at, result);
+                    }
+                }
+                return at == Long.MAX_VALUE ? different : at;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new HuffException("interrupted comparing " + first + " and " + second);
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+            finally {
+                pool.shutdownNow();
+            }
+        }
+        catch (IOException io) {
+            throw new RuntimeException(io);
         }
-      
+    }
+    
+    /**
+     * Compare bytes [from, to) of two files
+     * @param found holds the smallest mismatch found so far by any range,
+     * the range gives up once it is past that offset
+     * @return offset of the first byte that differs, or -1
+     */
+    private static long compareRange(FileChannel a, FileChannel b, long from, long to, AtomicLong found)
+            throws IOException {
+        MappedByteBuffer left = a.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        MappedByteBuffer right = b.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        int length = (int) (to - from);
+        for (int start = 0; start < length && from + start < found.get(); start += CHUNK_SIZE) {
+            // slices of the mapped buffers, compared in place
+            int end = Math.min(length, start + CHUNK_SIZE);
+            ByteBuffer leftChunk = left.limit(end).position(start).slice();
+            ByteBuffer rightChunk = right.limit(end).position(start).slice();
+            int at = leftChunk.mismatch(rightChunk);
+            if (at >= 0) {
+                long offset = from + start + at;
+                found.accumulateAndGet(offset, Math::min);
+                return offset;
+            }
+        }
+        return -1;
     }
     
     public static File[] doDiffWork() {
@@ -83,6 +176,9 @@ public class Diff
     }
     
     public static void main(String[] args){
+        if (args.length > 0) {
+            System.exit(compareFromCommandLine(args));
+        }
         ourChooser.setMultiSelectionEnabled(true);
         ourChooser.setDialogTitle("Diff: choose two files");
         ourFiles = doDiffWork();
@@ -91,13 +187,54 @@ public class Diff
                     "Diff Error",JOptionPane.ERROR_MESSAGE);
         }
         else {
-        	if (doDiffer(ourFiles)){
+        	long at = firstMismatch(ourFiles[0], ourFiles[1], 1);
+        	if (at < 0){
         		showMessage("Files are the same");
         	}
         	else {
-        		showMessage("Files DIFFER somewhere");
+        		showMessage("Files DIFFER at byte " + at);
         	}
         }          
         System.exit(0);
     }
+    
+    private static int compareFromCommandLine(String[] args) {
+        int threads = 1;
+        int k = 0;
+        try {
+            if (args.length == 4 && args[0].equals("-threads")) {
+                threads = Integer.parseInt(args[1]);
+                k = 2;
+            }
+        }
+        catch (NumberFormatException e) {
+            threads = 0;
+        }
+        if (args.length - k != 2 || threads < 1) {
+            System.err.println("usage: java Diff [-threads n] file1 file2");
+            return 2;
+        }
+        File first = new File(args[k]);
+        File second = new File(args[k + 1]);
+        long start = System.nanoTime();
+        long at;
+        try {
+            at = firstMismatch(first, second, threads);
+        }
+        catch (RuntimeException e) {
+            // a file that cannot be read is an error, not a difference
+            Throwable cause = e.getCause() instanceof IOException ? e.getCause() : e;
+            System.err.println("Diff: " + cause);
+            return 2;
+        }
+        double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+        if (at < 0) {
+            System.out.printf("same, %d bytes, %.3f s, %.1f MB/s%n", first.length(), seconds,
+                    first.length() / (double) (1 << 20) / seconds);
+            return 0;
+        }
+        System.out.printf("differ at byte %d (%s is %d bytes, %s is %d bytes)%n",
+                at, first, first.length(), second, second.length());
+        return 1;
+    }
 }
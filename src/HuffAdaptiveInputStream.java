@@ -0,0 +1,119 @@
+import java.io.InputStream;
+
+/**
+ * Decompresses a stream written by HuffAdaptiveOutputStream as it
+ * arrives. The decoder rebuilds the same codes as the encoder at the same
+ * points, so it needs no header beyond the window size. Codes are read a
+ * bit at a time, never ahead, so read returns the bytes before a flush
+ * point as soon as the flush point has arrived.
+ */
+
+public class HuffAdaptiveInputStream extends InputStream {
+
+	private final BitInputStream myIn;
+	private final HuffAdaptiveModel myModel;
+	private boolean myDone;
+
+	/**
+	 * Create a stream that reads compressed bytes from in
+	 * @param in holds a stream written by HuffAdaptiveOutputStream
+	 * @throws HuffException if in does not start with HUFF_ADAPTIVE
+	 */
+	public HuffAdaptiveInputStream(InputStream in) {
+		this(new BitInputStream(in, false));
+	}
+
+	/**
+	 * Create a stream that reads compressed bits from in
+	 * @param in holds a stream written by HuffAdaptiveOutputStream
+	 * @throws HuffException if in does not start with HUFF_ADAPTIVE
+	 */
+	public HuffAdaptiveInputStream(BitInputStream in) {
+		int magic = in.readBits(HuffProcessor.BITS_PER_INT);
+		if (magic != HuffProcessor.HUFF_ADAPTIVE) {
+			throw new HuffException("not an adaptive stream " + magic);
+		}
+		myIn = in;
+		myModel = readModel(in);
+	}
+
+	private static HuffAdaptiveModel readModel(BitInputStream in) {
+		int window = in.readBits(HuffProcessor.BITS_PER_INT);
+		if (window < 1) {
+			throw new HuffException("bad adaptive window " + window);
+		}
+		return new HuffAdaptiveModel(window);
+	}
+
+	/**
+	 * Decode the rest of an adaptive stream whose magic number has been
+	 * read, as HuffProcessor.decompress does
+	 * @param in is positioned just after HUFF_ADAPTIVE
+	 * @param out is where the original bytes are written
+	 */
+	static void decode(BitInputStream in, BitOutputStream out) {
+		HuffAdaptiveModel model = readModel(in);
+		while (true) {
+			int symbol = model.read(in);
+			if (symbol == HuffProcessor.PSEUDO_EOF) {
+				return;
+			}
+			if (symbol == HuffAdaptiveModel.FLUSH) {
+				model.skipToByte(in);
+			}
+			else {
+				out.writeBits(HuffProcessor.BITS_PER_WORD, symbol);
+			}
+		}
+	}
+
+	@Override
+	public int read() {
+		while (!myDone) {
+			int symbol = myModel.read(myIn);
+			if (symbol == HuffProcessor.PSEUDO_EOF) {
+				myDone = true;
+			}
+			else if (symbol == HuffAdaptiveModel.FLUSH) {
+				myModel.skipToByte(myIn);
+			}
+			else {
+				return symbol;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Read up to len bytes, returning early at a flush point once at
+	 * least one byte has been read
+	 */
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		int n = 0;
+		while (n < len && !myDone) {
+			int symbol = myModel.read(myIn);
+			if (symbol == HuffProcessor.PSEUDO_EOF) {
+				myDone = true;
+			}
+			else if (symbol == HuffAdaptiveModel.FLUSH) {
+				myModel.skipToByte(myIn);
+				if (n > 0) {
+					break;
+				}
+			}
+			else {
+				b[off + n++] = (byte) symbol;
+			}
+		}
+		return n == 0 && len > 0 ? -1 : n;
+	}
+
+	@Override
+	public void close() {
+		myIn.close();
+	}
+}
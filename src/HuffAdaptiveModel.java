@@ -0,0 +1,145 @@
+import java.util.Arrays;
+
+/**
+ * The code shared by HuffAdaptiveOutputStream and HuffAdaptiveInputStream.
+ * Both sides start with every symbol equally likely, count each symbol as
+ * it is coded and rebuild the codes from the counts at the same points,
+ * so the decoder always has the encoder's codes and no header is needed.
+ * <P>
+ * Codes are rebuilt after 256 symbols, then after windows that double up
+ * to the window size, so short streams adapt quickly and long streams
+ * rebuild rarely. Counts are halved at each rebuild so the codes follow
+ * changes in the data rather than its whole history.
+ * <P>
+ * The alphabet is the ALPH_SIZE bytes, PSEUDO_EOF and FLUSH, which marks a
+ * point where the encoder padded its output to a byte boundary and
+ * flushed it.
+ */
+
+public class HuffAdaptiveModel {
+
+	public static final int FLUSH = HuffProcessor.PSEUDO_EOF + 1;
+	public static final int SYMBOLS = FLUSH + 1;
+	public static final int DEFAULT_WINDOW = 1 << 14;
+
+	private static final int FIRST_WINDOW = 256;
+
+	private final int myMaxWindow;
+	private final long[] myCounts = new long[SYMBOLS];
+	private final int[] myLengths = new int[SYMBOLS];
+	private final HuffLengths myBuilder = new HuffLengths(SYMBOLS);
+	private int myWindow;
+	private int mySeen;
+	private HuffCodes myCodes;
+
+	// canonical decoding: codes of each length are consecutive, in the
+	// order of mySorted starting at myOffsets[length]
+	private final long[] myFirst = new long[HuffCodes.MAX_CODE_LENGTH + 1];
+	private final int[] myPerLength = new int[HuffCodes.MAX_CODE_LENGTH + 1];
+	private final int[] myOffsets = new int[HuffCodes.MAX_CODE_LENGTH + 1];
+	private final int[] mySorted = new int[SYMBOLS];
+	private long myBits;
+
+	/**
+	 * Create a model in its starting state
+	 * @param window is the most symbols coded between rebuilds, at least 1
+	 */
+	public HuffAdaptiveModel(int window) {
+		if (window < 1) {
+			throw new IllegalArgumentException("window must be positive: " + window);
+		}
+		myMaxWindow = window;
+		myWindow = Math.min(FIRST_WINDOW, window);
+		for (int s = 0; s < SYMBOLS; s++) {
+			myCounts[s] = 1;
+		}
+		rebuild();
+	}
+
+	/**
+	 * Write the code for symbol and update the model
+	 * @param symbol is a byte, PSEUDO_EOF or FLUSH
+	 * @param out is where the code is written
+	 */
+	public void write(int symbol, BitOutputStream out) {
+		myCodes.write(symbol, out);
+		update(symbol);
+	}
+
+	/**
+	 * Read one symbol and update the model. Reads only the bits of the
+	 * symbol's code, never ahead of it, so a reader that has everything
+	 * up to a flush point can decode it without waiting for more input.
+	 * @param in is positioned at the start of a code
+	 * @return the symbol read
+	 * @throws HuffException if in ends within a code
+	 */
+	public int read(BitInputStream in) {
+		long code = 0;
+		for (int length = 1; length <= HuffCodes.MAX_CODE_LENGTH; length++) {
+			int bit = in.readBits(1);
+			if (bit == -1) {
+				throw new HuffException("bad input, no PSEUDO_EOF");
+			}
+			myBits += 1;
+			code = (code << 1) | bit;
+			long index = code - myFirst[length];
+			if (index < myPerLength[length]) {
+				int symbol = mySorted[myOffsets[length] + (int) index];
+				update(symbol);
+				return symbol;
+			}
+		}
+		throw new HuffException("bad input, not a valid code");
+	}
+
+	/**
+	 * Skip the bits the encoder padded with after FLUSH
+	 * @param in is positioned just after a FLUSH code
+	 */
+	public void skipToByte(BitInputStream in) {
+		int padding = (int) (-myBits & (HuffProcessor.BITS_PER_WORD - 1));
+		if (padding > 0) {
+			if (in.readBits(padding) == -1) {
+				throw new HuffException("bad input, stream ends in padding");
+			}
+			myBits += padding;
+		}
+	}
+
+	private void update(int symbol) {
+		myCounts[symbol] += 1;
+		mySeen += 1;
+		if (mySeen == myWindow) {
+			mySeen = 0;
+			myWindow = Math.min(2 * myWindow, myMaxWindow);
+			rebuild();
+			for (int s = 0; s < SYMBOLS; s++) {
+				myCounts[s] = (myCounts[s] + 1) / 2;
+			}
+		}
+	}
+
+	private void rebuild() {
+		myBuilder.compute(myCounts, myLengths);
+		myCodes = new HuffCodes(myLengths);
+
+		// every count is at least 1, so every symbol has a code
+		Arrays.fill(myPerLength, 0);
+		for (int length : myLengths) {
+			myPerLength[length] += 1;
+		}
+		long first = 0;
+		int offset = 0;
+		for (int length = 1; length <= HuffCodes.MAX_CODE_LENGTH; length++) {
+			first = (first + myPerLength[length - 1]) << 1;
+			myFirst[length] = first;
+			myOffsets[length] = offset;
+			offset += myPerLength[length];
+		}
+		int[] next = myOffsets.clone();
+		for (int s = 0; s < SYMBOLS; s++) {
+			mySorted[next[myLengths[s]]++] = s;
+		}
+	}
+}
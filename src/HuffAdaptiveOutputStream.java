@@ -0,0 +1,89 @@
+import java.io.OutputStream;
+
+/**
+ * Compresses bytes as they are written, in one pass, with codes that
+ * adapt to the data (see HuffAdaptiveModel). Nothing is counted ahead and
+ * no tree is written, so output can go to a socket or pipe as the input
+ * arrives. flush() marks a flush point: everything written so far goes
+ * out, and a HuffAdaptiveInputStream reading the other end can return it
+ * all without waiting for more.
+ * <P>
+ * The stream starts with HUFF_ADAPTIVE and the window size, the codes
+ * follow and close() ends them with PSEUDO_EOF. HuffProcessor.decompress
+ * reads it like any other compressed file.
+ */
+
+public class HuffAdaptiveOutputStream extends OutputStream {
+
+	private final BitOutputStream myOut;
+	private final HuffAdaptiveModel myModel;
+	private boolean myClosed;
+
+	/**
+	 * Create a stream that writes to out with the default window
+	 * @param out is where compressed bytes are written
+	 */
+	public HuffAdaptiveOutputStream(OutputStream out) {
+		this(new BitOutputStream(out), HuffAdaptiveModel.DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Create a stream that writes to out
+	 * @param out is where compressed bytes are written
+	 * @param window is the most bytes coded between code rebuilds, smaller
+	 * windows follow changes in the data sooner but rebuild more often
+	 */
+	public HuffAdaptiveOutputStream(BitOutputStream out, int window) {
+		myModel = new HuffAdaptiveModel(window);
+		myOut = out;
+		myOut.writeBits(HuffProcessor.BITS_PER_INT, HuffProcessor.HUFF_ADAPTIVE);
+		myOut.writeBits(HuffProcessor.BITS_PER_INT, window);
+	}
+
+	@Override
+	public void write(int b) {
+		checkOpen();
+		myModel.write(b & 0xff, myOut);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		checkOpen();
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		for (int k = off; k < off + len; k++) {
+			myModel.write(b[k] & 0xff, myOut);
+		}
+	}
+
+	/**
+	 * Write a flush point and send everything written so far. Each flush
+	 * costs a FLUSH code and up to 7 bits of padding.
+	 */
+	@Override
+	public void flush() {
+		checkOpen();
+		myModel.write(HuffAdaptiveModel.FLUSH, myOut);
+		myOut.flush();
+	}
+
+	/**
+	 * End the compressed data and close the underlying stream
+	 */
+	@Override
+	public void close() {
+		if (myClosed) {
+			return;
+		}
+		myModel.write(HuffProcessor.PSEUDO_EOF, myOut);
+		myClosed = true;
+		myOut.close();
+	}
+
+	private void checkOpen() {
+		if (myClosed) {
+			throw new HuffException("stream is closed");
+		}
+	}
+}
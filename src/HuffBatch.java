@@ -0,0 +1,295 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Command-line driver that compresses or decompresses many files without
+ * any dialogs, for servers and bulk jobs:
+ * <pre>
+ *   java HuffBatch -c|-d [-threads n] [-out dir] [-canonical] [-max bits] [-f] path ...
+ * </pre>
+ * Each path is a file, a directory (all files below it) or a glob such as
+ * data/*.txt or "logs/**.log". Compressing writes name.hf, decompressing
+ * a name.hf writes name; directories only contribute files ending in .hf
+ * when decompressing and files not ending in .hf when compressing. With
+ * -out, outputs go under dir keeping their path relative to the directory
+ * or glob they were found in. Existing outputs are left alone unless -f
+ * is given.
+ * <P>
+ * Files are processed on a fixed pool of worker threads fed through a
+ * bounded queue; when the queue is full the thread listing files runs
+ * the next one itself, so listing never gets far ahead of the workers.
+ * Each worker keeps one HuffProcessor for every file it handles, so code
+ * tables and buffers stay warm across thousands of small files. A failed
+ * file is reported and skipped; the exit status is 1 if any file failed.
+ */
+
+public class HuffBatch {
+
+	public static final String SUFFIX = ".hf";
+
+	private static final int QUEUE_PER_THREAD = 2;
+	private static final double MB = 1 << 20;
+
+	private final boolean myCompress;
+	private final Path myOutDir;
+	private final boolean myForce;
+	private final ThreadLocal<HuffProcessor> myProcessors;
+
+	private final AtomicInteger myFiles = new AtomicInteger();
+	private final AtomicInteger myFailures = new AtomicInteger();
+	private final AtomicInteger mySkipped = new AtomicInteger();
+	private final AtomicLong myBytesIn = new AtomicLong();
+	private final AtomicLong myBytesOut = new AtomicLong();
+
+	/**
+	 * Create a batch that compresses or decompresses files
+	 * @param compress is true to compress, false to decompress
+	 * @param outDir is where outputs are written, null for next to each input
+	 * @param force is true to overwrite outputs that already exist
+	 * @param canonical is passed to HuffProcessor.setCanonical
+	 * @param maxCodeLength is passed to HuffProcessor.setMaxCodeLength
+	 */
+	public HuffBatch(boolean compress, Path outDir, boolean force, boolean canonical, int maxCodeLength) {
+		myCompress = compress;
+		myOutDir = outDir;
+		myForce = force;
+		myProcessors = ThreadLocal.withInitial(() -> {
+			HuffProcessor processor = new HuffProcessor();
+			processor.setCanonical(canonical);
+			processor.setMaxCodeLength(maxCodeLength);
+			return processor;
+		});
+	}
+
+	public static void main(String[] args) {
+		Boolean compress = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		Path outDir = null;
+		boolean force = false;
+		boolean canonical = false;
+		int maxCodeLength = 0;
+		List<String> paths = new ArrayList<>();
+		try {
+			for (int k = 0; k < args.length; k++) {
+				switch (args[k]) {
+				case "-c":
+					compress = true;
+					break;
+				case "-d":
+					compress = false;
+					break;
+				case "-threads":
+					threads = Integer.parseInt(args[++k]);
+					break;
+				case "-out":
+					outDir = Paths.get(args[++k]);
+					break;
+				case "-f":
+					force = true;
+					break;
+				case "-canonical":
+					canonical = true;
+					break;
+				case "-max":
+					maxCodeLength = Integer.parseInt(args[++k]);
+					break;
+				default:
+					paths.add(args[k]);
+				}
+			}
+		}
+		catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			compress = null;
+		}
+		if (compress == null || paths.isEmpty() || threads < 1) {
+			System.err.println("usage: java HuffBatch -c|-d [-threads n] [-out dir] [-canonical] [-max bits] [-f] path ...");
+			System.exit(2);
+		}
+
+		HuffBatch batch = new HuffBatch(compress, outDir, force, canonical, maxCodeLength);
+		boolean ok = batch.run(paths, threads);
+		System.exit(ok ? 0 : 1);
+	}
+
+	/**
+	 * Process every file the paths name, on threads worker threads, and
+	 * print a summary
+	 * @param paths are files, directories or globs
+	 * @param threads is the number of worker threads
+	 * @return true if every file was processed
+	 */
+	public boolean run(List<String> paths, int threads) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(QUEUE_PER_THREAD * threads), new ThreadPoolExecutor.CallerRunsPolicy());
+		long start = System.nanoTime();
+		try {
+			for (String path : paths) {
+				submitAll(path, pool);
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+		try {
+			while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+				// wait for the last files
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			pool.shutdownNow();
+			throw new HuffException("interrupted waiting for workers");
+		}
+		double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+
+		long in = myBytesIn.get();
+		long out = myBytesOut.get();
+		System.out.printf("%s %d files, %d skipped, %d failed, %d bytes to %d bytes (%.4f)%n",
+				myCompress ? "compressed" : "decompressed", myFiles.get(), mySkipped.get(), myFailures.get(),
+				in, out, in == 0 ? 0.0 : (double) out / in);
+		System.out.printf("%.3f s on %d threads, %.1f MB/s in, %.1f MB/s out, %.1f files/s%n",
+				seconds, threads, in / MB / seconds, out / MB / seconds, myFiles.get() / seconds);
+		return myFailures.get() == 0;
+	}
+
+	private void submitAll(String path, ThreadPoolExecutor pool) {
+		Path base;
+		List<Path> files;
+		try {
+			int glob = firstGlobChar(path);
+			if (glob >= 0) {
+				base = globBase(path, glob);
+				PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+				try (Stream<Path> walk = Files.walk(base)) {
+					files = walk.filter(Files::isRegularFile).filter(matcher::matches).sorted()
+							.collect(Collectors.toList());
+				}
+			}
+			else if (Files.isDirectory(Paths.get(path))) {
+				base = Paths.get(path);
+				try (Stream<Path> walk = Files.walk(base)) {
+					files = walk.filter(Files::isRegularFile)
+							.filter(p -> p.toString().endsWith(SUFFIX) != myCompress).sorted()
+							.collect(Collectors.toList());
+				}
+			}
+			else {
+				Path file = Paths.get(path);
+				base = file.getParent() == null ? Paths.get("") : file.getParent();
+				files = new ArrayList<>();
+				files.add(file);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			System.err.printf("%s: %s%n", path, e);
+			myFailures.incrementAndGet();
+			return;
+		}
+		for (Path file : files) {
+			Path target = outputFor(base, file);
+			pool.execute(() -> process(file, target));
+		}
+	}
+
+	private static int firstGlobChar(String path) {
+		for (int k = 0; k < path.length(); k++) {
+			if ("*?[{".indexOf(path.charAt(k)) >= 0) {
+				return k;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Return the directory a glob is walked from: everything before the
+	 * path element holding the first glob character
+	 */
+	private static Path globBase(String path, int glob) {
+		int slash = path.lastIndexOf(File.separatorChar, glob);
+		if (File.separatorChar != '/') {
+			slash = Math.max(slash, path.lastIndexOf('/', glob));
+		}
+		return slash < 0 ? Paths.get("") : Paths.get(path.substring(0, slash + 1));
+	}
+
+	private Path outputFor(Path base, Path file) {
+		String name = file.getFileName().toString();
+		if (myCompress) {
+			name = name + SUFFIX;
+		}
+		else if (name.endsWith(SUFFIX) && name.length() > SUFFIX.length()) {
+			name = name.substring(0, name.length() - SUFFIX.length());
+		}
+		else {
+			name = name + ".unhf";
+		}
+		if (myOutDir == null) {
+			return file.resolveSibling(name);
+		}
+		Path relative = base.toAbsolutePath().normalize().relativize(file.toAbsolutePath().normalize());
+		return myOutDir.resolve(relative).resolveSibling(name);
+	}
+
+	/**
+	 * Compress or decompress one file with this thread's processor
+	 */
+	private void process(Path file, Path target) {
+		File in = file.toFile();
+		File out = target.toFile();
+		if (out.exists() && !myForce) {
+			System.err.printf("%s: %s exists, skipped%n", file, target);
+			mySkipped.incrementAndGet();
+			return;
+		}
+		try {
+			if (target.getParent() != null) {
+				Files.createDirectories(target.getParent());
+			}
+			HuffProcessor processor = myProcessors.get();
+			if (myCompress) {
+				processor.compress(in, out);
+			}
+			else {
+				decompress(processor, in, out);
+			}
+			myFiles.incrementAndGet();
+			myBytesIn.addAndGet(in.length());
+			myBytesOut.addAndGet(out.length());
+		}
+		catch (IOException | RuntimeException e) {
+			System.err.printf("%s: %s%n", file, e.getMessage() == null ? e : e.getMessage());
+			myFailures.incrementAndGet();
+			// do not leave a partial output that looks like a good one
+			out.delete();
+		}
+	}
+
+	private static void decompress(HuffProcessor processor, File in, File out) {
+		try (BitInputStream bis = new BitInputStream(in)) {
+			BitOutputStream bos = new BitOutputStream(out);
+			try {
+				processor.decompress(bis, bos);
+			}
+			catch (RuntimeException e) {
+				// decompress closes bos only when it succeeds, and the
+				// partial output can only be deleted once it is closed
+				HuffProcessor.closeAfterFailure(bos, e);
+				throw e;
+			}
+		}
+	}
+}
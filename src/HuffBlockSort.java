@@ -0,0 +1,153 @@
+import java.util.Arrays;
+
+/**
+ * Block-sorting (Burrows-Wheeler) transform: the rotations of the block
+ * are sorted and the last byte of each is written, preceded by the
+ * position of the unrotated block among them (4 bytes). Bytes that come
+ * before similar contexts end up next to each other, so the output is
+ * full of runs that HuffMoveToFront and HuffRunLength turn into a few
+ * small numbers. A pipeline of run-length, block sort, move-to-front and
+ * run-length again is the one bzip2 uses.
+ * <P>
+ * Rotations are sorted by prefix doubling: sorted by their first byte,
+ * then by their first 2, 4, 8... bytes, each pass a counting sort of
+ * pairs of the previous pass's ranks, stopping once all ranks differ.
+ * That takes O(n log n) time at worst and 5 ints per byte of block.
+ * Undoing the transform takes O(n) time and 1 int per byte.
+ */
+
+public class HuffBlockSort implements HuffTransform {
+
+	private static final int INDEX_BYTES = 4;
+
+	@Override
+	public int id() {
+		return BLOCK_SORT;
+	}
+
+	@Override
+	public int maxLength(int length) {
+		return length + INDEX_BYTES;
+	}
+
+	@Override
+	public int forward(byte[] in, int length, byte[] out) {
+		int n = length;
+		int[] order = sortRotations(in, n);
+		int primary = 0;
+		for (int k = 0; k < n; k++) {
+			int start = order[k];
+			if (start == 0) {
+				primary = k;
+				start = n;
+			}
+			out[INDEX_BYTES + k] = in[start - 1];
+		}
+		for (int k = 0; k < INDEX_BYTES; k++) {
+			out[k] = (byte) (primary >>> (8 * (INDEX_BYTES - 1 - k)));
+		}
+		return n + INDEX_BYTES;
+	}
+
+	/**
+	 * Return the start of each rotation of in[0, n) in sorted order
+	 */
+	private static int[] sortRotations(byte[] in, int n) {
+		int[] order = new int[n];
+		int[] rank = new int[n];
+		int[] shifted = new int[n];
+		int[] next = new int[n];
+		int[] counts = new int[Math.max(n, HuffProcessor.ALPH_SIZE)];
+
+		// sorted by first byte
+		for (int k = 0; k < n; k++) {
+			counts[in[k] & 0xff] += 1;
+		}
+		for (int b = 1; b < HuffProcessor.ALPH_SIZE; b++) {
+			counts[b] += counts[b - 1];
+		}
+		for (int k = n - 1; k >= 0; k--) {
+			order[--counts[in[k] & 0xff]] = k;
+		}
+		int classes = 0;
+		for (int k = 0; k < n; k++) {
+			if (k > 0 && in[order[k]] != in[order[k - 1]]) {
+				classes += 1;
+			}
+			rank[order[k]] = classes;
+		}
+		classes += 1;
+
+		// sorted by first 2h bytes: by rank of the first h, then of the next h
+		for (int h = 1; h < n && classes < n; h <<= 1) {
+			for (int k = 0; k < n; k++) {
+				int start = order[k] - h;
+				shifted[k] = start < 0 ? start + n : start;
+			}
+			Arrays.fill(counts, 0, classes, 0);
+			for (int k = 0; k < n; k++) {
+				counts[rank[shifted[k]]] += 1;
+			}
+			for (int r = 1; r < classes; r++) {
+				counts[r] += counts[r - 1];
+			}
+			for (int k = n - 1; k >= 0; k--) {
+				order[--counts[rank[shifted[k]]]] = shifted[k];
+			}
+			classes = 0;
+			next[order[0]] = 0;
+			for (int k = 1; k < n; k++) {
+				int a = order[k];
+				int b = order[k - 1];
+				int aSecond = a + h < n ? a + h : a + h - n;
+				int bSecond = b + h < n ? b + h : b + h - n;
+				if (rank[a] != rank[b] || rank[aSecond] != rank[bSecond]) {
+					classes += 1;
+				}
+				next[a] = classes;
+			}
+			classes += 1;
+			int[] swap = rank;
+			rank = next;
+			next = swap;
+		}
+		return order;
+	}
+
+	@Override
+	public int inverse(byte[] in, int length, byte[] out) {
+		int n = length - INDEX_BYTES;
+		if (n < 0 || n > out.length) {
+			throw new HuffException("bad input, block-sort length " + length);
+		}
+		int primary = 0;
+		for (int k = 0; k < INDEX_BYTES; k++) {
+			primary = (primary << 8) | (in[k] & 0xff);
+		}
+		if (n == 0) {
+			return 0;
+		}
+		if (primary < 0 || primary >= n) {
+			throw new HuffException("bad input, block-sort index " + primary);
+		}
+
+		// the row of each rotation one byte earlier, from the last bytes
+		int[] starts = new int[HuffProcessor.ALPH_SIZE + 1];
+		for (int k = 0; k < n; k++) {
+			starts[(in[INDEX_BYTES + k] & 0xff) + 1] += 1;
+		}
+		for (int b = 1; b <= HuffProcessor.ALPH_SIZE; b++) {
+			starts[b] += starts[b - 1];
+		}
+		int[] previous = new int[n];
+		for (int k = 0; k < n; k++) {
+			previous[k] = starts[in[INDEX_BYTES + k] & 0xff]++;
+		}
+		int row = primary;
+		for (int k = n - 1; k >= 0; k--) {
+			out[k] = in[INDEX_BYTES + row];
+			row = previous[row];
+		}
+		return n;
+	}
+}
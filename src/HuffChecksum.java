@@ -0,0 +1,138 @@
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC32C checksums for compressed files. CRC32C is computed with
+ * java.util.zip.CRC32C, which uses the processor's CRC instructions where
+ * there are any.
+ * <P>
+ * Checksums of pieces can be combined into the checksum of the pieces
+ * one after another without seeing the bytes again, so blocks checked on
+ * separate threads, in any order, still give the checksum of the whole
+ * file. An instance accumulates such a checksum: add the checksum and
+ * length of each piece, in order.
+ */
+
+public class HuffChecksum {
+
+	// CRC32C (Castagnoli) polynomial, bit-reversed
+	private static final int POLY = 0x82f63b78;
+	private static final int BITS = 32;
+
+	private int myValue;
+	private long myLength;
+
+	/**
+	 * Add the next piece of the data checked
+	 * @param crc is the CRC32C of the piece
+	 * @param length is the number of bytes in the piece
+	 */
+	public void add(int crc, long length) {
+		// the first piece's checksum is the checksum so far
+		myValue = myLength == 0 ? crc : combine(myValue, crc, length);
+		myLength += length;
+	}
+
+	/**
+	 * Forget every piece added, to check other data
+	 */
+	void clear() {
+		myValue = 0;
+		myLength = 0;
+	}
+
+	/**
+	 * Return the CRC32C of all the pieces added
+	 * @return checksum, 0 if nothing was added
+	 */
+	public int value() {
+		return myValue;
+	}
+
+	/**
+	 * Return the number of bytes in all the pieces added
+	 * @return total length
+	 */
+	public long length() {
+		return myLength;
+	}
+
+	/**
+	 * Return the CRC32C of data[offset, offset + length)
+	 */
+	public static int of(byte[] data, int offset, int length) {
+		CRC32C crc = new CRC32C();
+		crc.update(data, offset, length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Return the CRC32C of the remaining bytes of buffer, leaving its
+	 * position unchanged
+	 */
+	public static int of(ByteBuffer buffer) {
+		CRC32C crc = new CRC32C();
+		crc.update(buffer.duplicate());
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Return the CRC32C of A followed by B given the CRC32C of each, the
+	 * method of zlib's crc32_combine: appending length2 zero bytes to A
+	 * is a linear map on its checksum, applied by repeated squaring.
+	 * @param crc1 is the CRC32C of A
+	 * @param crc2 is the CRC32C of B
+	 * @param length2 is the number of bytes in B
+	 * @return the CRC32C of A followed by B
+	 */
+	public static int combine(int crc1, int crc2, long length2) {
+		if (length2 <= 0) {
+			return crc1;
+		}
+		int[] even = new int[BITS];
+		int[] odd = new int[BITS];
+
+		// odd is the operator for one zero bit
+		odd[0] = POLY;
+		int row = 1;
+		for (int n = 1; n < BITS; n++) {
+			odd[n] = row;
+			row <<= 1;
+		}
+		square(even, odd);	// two zero bits
+		square(odd, even);	// four zero bits
+
+		// each step squares the operator, one zero byte first
+		do {
+			square(even, odd);
+			if ((length2 & 1) != 0) {
+				crc1 = times(even, crc1);
+			}
+			length2 >>= 1;
+			if (length2 == 0)
+				break;
+			square(odd, even);
+			if ((length2 & 1) != 0) {
+				crc1 = times(odd, crc1);
+			}
+			length2 >>= 1;
+		} while (length2 != 0);
+		return crc1 ^ crc2;
+	}
+
+	private static int times(int[] matrix, int vector) {
+		int sum = 0;
+		for (int k = 0; vector != 0; k++, vector >>>= 1) {
+			if ((vector & 1) != 0) {
+				sum ^= matrix[k];
+			}
+		}
+		return sum;
+	}
+
+	private static void square(int[] result, int[] matrix) {
+		for (int n = 0; n < BITS; n++) {
+			result[n] = times(matrix, matrix[n]);
+		}
+	}
+}
@@ -0,0 +1,409 @@
+import java.util.Arrays;
+
+/**
+ * Encoding table for Huffman compression. Stores, for every symbol, the
+ * path from the root to the symbol's leaf as the low-order bits of a long
+ * (0 for left, 1 for right, first step in the most significant position)
+ * together with the number of bits in that path. The table is built once
+ * per tree so that writing a symbol is two array lookups and a writeBits
+ * call, with no String parsing or allocation per symbol.
+ * <P>
+ * Codes can also be canonical: built from nothing but the length of each
+ * symbol's code, by handing out consecutive codes to symbols ordered by
+ * length and then by value. Canonical codes only need the lengths stored
+ * in a header, see writeLengths and readLengths.
+ */
+
+public class HuffCodes {
+
+	public static final int MAX_CODE_LENGTH = 64;
+
+	private static final int INT_SIZE = 32;
+	// bits used to store the width of each length in a lengths header
+	static final int WIDTH_BITS = 3;
+	private static final int COUNT_BITS = HuffProcessor.BITS_PER_WORD + 1;
+
+	private final long[] myCodes;
+	private final int[] myLengths;
+	// scratch kept by codes that are assigned again and again, else null
+	private final int[] myPerLength;
+	private final long[] myNext;
+	private final int[] myOrder;
+
+	/**
+	 * Build codes from the paths in a Huffman tree. A tree that is a
+	 * single leaf gives that leaf the one-bit code 0.
+	 * @param root is the root of the tree
+	 * @throws HuffException if a path is longer than MAX_CODE_LENGTH
+	 */
+	public HuffCodes(HuffNode root) {
+		myCodes = new long[HuffProcessor.ALPH_SIZE + 1];
+		myLengths = new int[HuffProcessor.ALPH_SIZE + 1];
+		myPerLength = null;
+		myNext = null;
+		myOrder = null;
+		if (root.myLeft == null && root.myRight == null) {
+			myLengths[root.myValue] = 1;
+		}
+		else {
+			fillCodes(root, 0, 0);
+		}
+	}
+
+	/**
+	 * Build canonical codes from code lengths
+	 * @param lengths holds the code length of every symbol, 0 for
+	 * symbols that do not occur
+	 * @throws HuffException if the lengths are not those of a complete
+	 * prefix code (a single symbol of length 1 is allowed)
+	 */
+	public HuffCodes(int[] lengths) {
+		myLengths = new int[lengths.length];
+		myCodes = new long[lengths.length];
+		myPerLength = null;
+		myNext = null;
+		myOrder = null;
+		assign(lengths, new int[MAX_CODE_LENGTH + 1], new long[MAX_CODE_LENGTH + 1]);
+	}
+
+	/**
+	 * Make codes for size symbols that are given their lengths by assign,
+	 * as often as needed, with no allocation after this. Such codes
+	 * change on every assign, so they are for one thread at a time.
+	 * @param size is the number of symbols
+	 */
+	HuffCodes(int size) {
+		myLengths = new int[size];
+		myCodes = new long[size];
+		myPerLength = new int[MAX_CODE_LENGTH + 1];
+		myNext = new long[MAX_CODE_LENGTH + 1];
+		myOrder = new int[size];
+	}
+
+	/**
+	 * Replace these codes, made with HuffCodes(int), by canonical codes
+	 * with new lengths, as new HuffCodes(lengths) would build
+	 * @param lengths holds the code length of every symbol, size() of them
+	 * @throws HuffException if the lengths are not those of a complete
+	 * prefix code
+	 */
+	void assign(int[] lengths) {
+		if (myPerLength == null || lengths.length != myLengths.length) {
+			throw new IllegalArgumentException("codes of " + myLengths.length + " symbols cannot take "
+					+ lengths.length + " lengths");
+		}
+		Arrays.fill(myPerLength, 0);
+		assign(lengths, myPerLength, myNext);
+	}
+
+	private void assign(int[] lengths, int[] perLength, long[] next) {
+		System.arraycopy(lengths, 0, myLengths, 0, lengths.length);
+		int symbols = 0;
+		for (int length : myLengths) {
+			if (length < 0 || length > MAX_CODE_LENGTH) {
+				throw new HuffException("bad code length " + length);
+			}
+			if (length > 0) {
+				perLength[length] += 1;
+				symbols += 1;
+			}
+		}
+		checkComplete(perLength, symbols);
+
+		// first code of each length, as in RFC 1951 section 3.2.2
+		long code = 0;
+		for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+			code = (code + perLength[length - 1]) << 1;
+			next[length] = code;
+		}
+		for (int s = 0; s < myLengths.length; s++) {
+			myCodes[s] = myLengths[s] > 0 ? next[myLengths[s]]++ : 0;
+		}
+	}
+
+	private static void checkComplete(int[] perLength, int symbols) {
+		if (symbols == 1 && perLength[1] == 1) {
+			return;
+		}
+		// left is the number of unused codes of the current length
+		long left = 1;
+		for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+			left = (left << 1) - perLength[length];
+			if (left < 0) {
+				throw new HuffException("code lengths are over-subscribed");
+			}
+			symbols -= perLength[length];
+			if (left > symbols) {
+				break;
+			}
+		}
+		if (left != 0) {
+			throw new HuffException("code lengths are incomplete");
+		}
+	}
+
+	private void fillCodes(HuffNode node, long code, int depth) {
+		if (node.myLeft == null && node.myRight == null) {
+			myCodes[node.myValue] = code;
+			myLengths[node.myValue] = depth;
+			return;
+		}
+		if (depth == MAX_CODE_LENGTH) {
+			throw new HuffException("code longer than " + MAX_CODE_LENGTH + " bits");
+		}
+		fillCodes(node.myLeft, code << 1, depth + 1);
+		fillCodes(node.myRight, (code << 1) | 1, depth + 1);
+	}
+
+	/**
+	 * Return the number of symbols this table has room for
+	 * @return number of entries, ALPH_SIZE + 1 for byte alphabets
+	 */
+	public int size() {
+		return myLengths.length;
+	}
+
+	/**
+	 * Return the number of bits in the code for symbol
+	 * @param symbol is a value in [0, size())
+	 * @return length of the code, 0 if symbol has no code
+	 */
+	public int length(int symbol) {
+		return myLengths[symbol];
+	}
+
+	/**
+	 * Return the code for symbol in the low-order length(symbol) bits
+	 * @param symbol is a value in [0, size())
+	 * @return code for symbol
+	 */
+	public long code(int symbol) {
+		return myCodes[symbol];
+	}
+
+	/**
+	 * Return a copy of the code length of every symbol
+	 * @return code lengths, 0 for symbols without a code
+	 */
+	public int[] lengths() {
+		return myLengths.clone();
+	}
+
+	/**
+	 * Return the length of the longest code
+	 * @return maximum code length
+	 */
+	public int maxLength() {
+		int max = 0;
+		for (int length : myLengths) {
+			max = Math.max(max, length);
+		}
+		return max;
+	}
+
+	/**
+	 * Build the Huffman tree whose paths are these codes, one node at
+	 * a time without recursion. Node weights are 0.
+	 * @return root of the tree
+	 */
+	public HuffNode toTree() {
+		HuffNode root = new HuffNode(0, 0);
+		int symbols = 0;
+		for (int s = 0; s < myLengths.length; s++) {
+			if (myLengths[s] == 0)
+				continue;
+			symbols += 1;
+			HuffNode node = root;
+			for (int bit = myLengths[s] - 1; bit > 0; bit--) {
+				if (((myCodes[s] >>> bit) & 1) == 0) {
+					if (node.myLeft == null) {
+						node.myLeft = new HuffNode(0, 0);
+					}
+					node = node.myLeft;
+				}
+				else {
+					if (node.myRight == null) {
+						node.myRight = new HuffNode(0, 0);
+					}
+					node = node.myRight;
+				}
+			}
+			if ((myCodes[s] & 1) == 0) {
+				node.myLeft = new HuffNode(s, 0);
+			}
+			else {
+				node.myRight = new HuffNode(s, 0);
+			}
+		}
+		if (symbols == 1) {
+			// a lone symbol is a tree of one leaf
+			return root.myLeft;
+		}
+		return root;
+	}
+
+	/**
+	 * Write the tree whose paths are these codes as a preorder walk: 0
+	 * for an internal node, then its left and right subtrees, and 1 then
+	 * the symbol in symbolBits bits for a leaf. The bits are those of
+	 * walking toTree(), but no nodes are built: a preorder walk meets the
+	 * leaves in the order of their codes read as binary fractions, and
+	 * the internal nodes before each leaf are the ones below the point
+	 * where its path leaves the path of the leaf before it.
+	 * @param symbolBits is the number of bits written for each symbol
+	 * @param out is where the tree is written
+	 */
+	public void writeTree(int symbolBits, BitOutputStream out) {
+		int[] order = myOrder != null ? myOrder : new int[myLengths.length];
+		int symbols = 0;
+		for (int s = 0; s < myLengths.length; s++) {
+			if (myLengths[s] > 0) {
+				// insertion sort, trees are written for byte alphabets
+				long key = aligned(s);
+				int k = symbols++;
+				while (k > 0 && Long.compareUnsigned(aligned(order[k - 1]), key) > 0) {
+					order[k] = order[k - 1];
+					k -= 1;
+				}
+				order[k] = s;
+			}
+		}
+		long previous = 0;
+		for (int k = 0; k < symbols; k++) {
+			int s = order[k];
+			// a lone symbol is a tree of one leaf
+			int internal = symbols == 1 ? 0 : myLengths[s];
+			if (k > 0) {
+				// the paths share the bits before the first that differs
+				internal -= Long.numberOfLeadingZeros(previous ^ aligned(s)) + 1;
+			}
+			if (internal > 0) {
+				out.writeBits(internal, 0L);
+			}
+			out.writeBits(1, 1);
+			out.writeBits(symbolBits, s);
+			previous = aligned(s);
+		}
+	}
+
+	// code of symbol in the most significant bits
+	private long aligned(int symbol) {
+		return myCodes[symbol] << (Long.SIZE - myLengths[symbol]);
+	}
+
+	/**
+	 * Write the code for symbol to out
+	 * @param symbol is a value in [0, size())
+	 * @param out is where the code is written
+	 */
+	public void write(int symbol, BitOutputStream out) {
+		int length = myLengths[symbol];
+		if (length > 0) {
+			out.writeBits(length, myCodes[symbol]);
+		}
+	}
+
+	/**
+	 * Write the code lengths to out, enough to rebuild canonical codes.
+	 * The header is the width of each length (3 bits), the number of
+	 * symbols with a code (9 bits), then for each such symbol in
+	 * increasing order the gap from the previous symbol as an Elias
+	 * gamma code and its length. Symbols that are close together, like
+	 * the letters of a text, cost little more than their length.
+	 * @param out is where the header is written
+	 */
+	public void writeLengths(BitOutputStream out) {
+		int width = widthOf(maxLength());
+		int symbols = 0;
+		for (int length : myLengths) {
+			if (length > 0) {
+				symbols += 1;
+			}
+		}
+		out.writeBits(WIDTH_BITS, width - 1);
+		out.writeBits(COUNT_BITS, symbols - 1);
+		int previous = -1;
+		for (int s = 0; s < myLengths.length; s++) {
+			if (myLengths[s] > 0) {
+				writeGamma(s - previous, out);
+				out.writeBits(width, myLengths[s]);
+				previous = s;
+			}
+		}
+	}
+
+	/**
+	 * Return the number of bits writeLengths writes, without writing them
+	 * @return size of the lengths header in bits
+	 */
+	public int lengthsBits() {
+		int width = widthOf(maxLength());
+		int bits = WIDTH_BITS + COUNT_BITS;
+		int previous = -1;
+		for (int s = 0; s < myLengths.length; s++) {
+			if (myLengths[s] > 0) {
+				bits += 2 * widthOf(s - previous) - 1 + width;
+				previous = s;
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Read code lengths written by writeLengths
+	 * @param in is positioned at the start of the header
+	 * @return code length of each of the ALPH_SIZE + 1 symbols
+	 * @throws HuffException if the header is malformed
+	 */
+	public static int[] readLengths(BitInputStream in) {
+		int width = in.readBits(WIDTH_BITS) + 1;
+		int symbols = in.readBits(COUNT_BITS) + 1;
+		if (width == 0 || symbols == 0) {
+			throw new HuffException("bad input, lengths header truncated");
+		}
+		int[] lengths = new int[HuffProcessor.ALPH_SIZE + 1];
+		int symbol = -1;
+		for (int k = 0; k < symbols; k++) {
+			symbol += readGamma(in);
+			int length = in.readBits(width);
+			if (symbol >= lengths.length || length <= 0) {
+				throw new HuffException("bad input, bad lengths header");
+			}
+			lengths[symbol] = length;
+		}
+		return lengths;
+	}
+
+	static int widthOf(int value) {
+		return INT_SIZE - Integer.numberOfLeadingZeros(value);
+	}
+
+	static void writeGamma(int value, BitOutputStream out) {
+		int bits = widthOf(value);
+		if (bits > 1) {
+			out.writeBits(bits - 1, 0);
+		}
+		out.writeBits(bits, value);
+	}
+
+	static int readGamma(BitInputStream in) {
+		int zeros = 0;
+		while (true) {
+			int bit = in.readBits(1);
+			if (bit == -1 || zeros > INT_SIZE - 2) {
+				throw new HuffException("bad input, bad lengths header");
+			}
+			if (bit == 1)
+				break;
+			zeros += 1;
+		}
+		if (zeros == 0) {
+			return 1;
+		}
+		int rest = in.readBits(zeros);
+		if (rest == -1) {
+			throw new HuffException("bad input, lengths header truncated");
+		}
+		return (1 << zeros) | rest;
+	}
+}
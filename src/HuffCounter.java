@@ -0,0 +1,283 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts occurrences of each 8-bit symbol in raw bytes rather than through
+ * BitInputStream.readBits. Counts are longs so inputs of 2 GB and more
+ * do not overflow. Files can be counted on several threads, each thread
+ * counting memory-mapped slices into its own histogram, with the
+ * histograms added together at the end.
+ * <P>
+ * Histograms have ALPH_SIZE + 1 entries like the ones HuffProcessor
+ * builds trees from; the PSEUDO_EOF entry is left for the caller to set.
+ * Counting can also compute the CRC32C of the bytes counted, so a
+ * checksum costs no extra pass over the input.
+ */
+
+public class HuffCounter {
+
+	public static final int CHUNK_SIZE = 1 << 16;
+
+	// largest region mapped at once, well under the 2 GB limit of a ByteBuffer
+	private static final int MAP_SIZE = 1 << 28;
+	private static final int LANES = 4;
+
+	// direct and mapped buffers are copied out a chunk at a time, into
+	// one reused chunk per thread
+	private static final ThreadLocal<byte[]> ourChunks = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+	// the lane tables of count, all zero between calls
+	private static final ThreadLocal<int[]> ourLanes = ThreadLocal
+			.withInitial(() -> new int[LANES * HuffProcessor.ALPH_SIZE]);
+
+	/**
+	 * Return a new histogram with room for every symbol and PSEUDO_EOF
+	 * @return an all-zero histogram
+	 */
+	public static long[] newCounts() {
+		return new long[HuffProcessor.ALPH_SIZE + 1];
+	}
+
+	/**
+	 * Add the symbols in data[offset, offset + length) to counts
+	 * @param data holds the bytes to count
+	 * @param offset is the index of the first byte counted
+	 * @param length is the number of bytes counted
+	 * @param counts is incremented once for each byte
+	 */
+	public static void count(byte[] data, int offset, int length, long[] counts) {
+		// four separate tables so runs of the same byte do not wait on
+		// the increment before them, reused and left zeroed for the next call
+		int[] lanes = ourLanes.get();
+		int k = offset;
+		int end = offset + length;
+		for (; k + LANES <= end; k += LANES) {
+			lanes[data[k] & 0xff] += 1;
+			lanes[HuffProcessor.ALPH_SIZE + (data[k + 1] & 0xff)] += 1;
+			lanes[2 * HuffProcessor.ALPH_SIZE + (data[k + 2] & 0xff)] += 1;
+			lanes[3 * HuffProcessor.ALPH_SIZE + (data[k + 3] & 0xff)] += 1;
+		}
+		for (; k < end; k++) {
+			lanes[data[k] & 0xff] += 1;
+		}
+		for (int s = 0; s < HuffProcessor.ALPH_SIZE; s++) {
+			counts[s] += lanes[s] + lanes[HuffProcessor.ALPH_SIZE + s]
+					+ lanes[2 * HuffProcessor.ALPH_SIZE + s] + lanes[3 * HuffProcessor.ALPH_SIZE + s];
+		}
+		Arrays.fill(lanes, 0);
+	}
+
+	/**
+	 * Add the remaining bytes of buffer to counts, leaving the buffer's
+	 * position at its limit. Works for heap, direct and mapped buffers.
+	 * @param buffer holds the bytes to count
+	 * @param counts is incremented once for each byte
+	 */
+	public static void count(ByteBuffer buffer, long[] counts) {
+		if (buffer.hasArray()) {
+			count(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), counts);
+			buffer.position(buffer.limit());
+			return;
+		}
+		byte[] chunk = ourChunks.get();
+		while (buffer.hasRemaining()) {
+			int length = Math.min(chunk.length, buffer.remaining());
+			buffer.get(chunk, 0, length);
+			count(chunk, 0, length, counts);
+		}
+	}
+
+	/**
+	 * Count every byte read from in until it is exhausted
+	 * @param in is the source of bytes
+	 * @return histogram of the bytes read
+	 */
+	public static long[] count(BitInputStream in) {
+		return count(in, null);
+	}
+
+	/**
+	 * Count every byte read from in until it is exhausted
+	 * @param in is the source of bytes
+	 * @param checksum has the CRC32C of the bytes read added, or is null
+	 * @return histogram of the bytes read
+	 */
+	public static long[] count(BitInputStream in, HuffChecksum checksum) {
+		long[] counts = newCounts();
+		byte[] chunk = new byte[CHUNK_SIZE];
+		while (true) {
+			int length = Math.max(0, in.readBytes(chunk, 0, chunk.length));
+			count(chunk, 0, length, counts);
+			if (checksum != null) {
+				checksum.add(HuffChecksum.of(chunk, 0, length), length);
+			}
+			if (length < chunk.length)
+				break;
+		}
+		return counts;
+	}
+
+	/**
+	 * Count every byte read from in by the byte before it, the first byte
+	 * counted as following a 0. PSEUDO_EOF is counted once, after the last
+	 * byte, so the histograms are ready to build codes from.
+	 * @param in is the source of bytes
+	 * @param checksum has the CRC32C of the bytes read added, or is null
+	 * @return one histogram per previous byte
+	 */
+	public static long[][] countContexts(BitInputStream in, HuffChecksum checksum) {
+		long[][] counts = new long[HuffProcessor.ALPH_SIZE][HuffProcessor.ALPH_SIZE + 1];
+		byte[] chunk = new byte[CHUNK_SIZE];
+		int previous = 0;
+		while (true) {
+			int length = Math.max(0, in.readBytes(chunk, 0, chunk.length));
+			for (int k = 0; k < length; k++) {
+				int symbol = chunk[k] & 0xff;
+				counts[previous][symbol] += 1;
+				previous = symbol;
+			}
+			if (checksum != null) {
+				checksum.add(HuffChecksum.of(chunk, 0, length), length);
+			}
+			if (length < chunk.length)
+				break;
+		}
+		counts[previous][HuffProcessor.PSEUDO_EOF] = 1;
+		return counts;
+	}
+
+	/**
+	 * Count every width-bit symbol read from in until it is exhausted, for
+	 * symbols other than bytes (see HuffProcessor.setSymbolWidth). The
+	 * input is read a chunk of bytes at a time and cut into symbols,
+	 * first bit first as readBits(width) would. Fewer than width bits
+	 * can be left at the end; they are not a symbol and are returned.
+	 * @param in is the source of bytes
+	 * @param width is the bits per symbol, in [1, MAX_SYMBOL_WIDTH]
+	 * @param counts has 1 added for every symbol read
+	 * @param checksum has the CRC32C of the bytes read added, or is null
+	 * @return the bits left over, their value shifted left 5 bits, or'd
+	 * with their number
+	 */
+	public static long countWide(BitInputStream in, int width, HuffSymbolMap counts, HuffChecksum checksum) {
+		byte[] chunk = new byte[CHUNK_SIZE];
+		int mask = (1 << width) - 1;
+		long buffer = 0;	// unread bits are the low-order bits
+		int bits = 0;
+		while (true) {
+			int length = Math.max(0, in.readBytes(chunk, 0, chunk.length));
+			for (int k = 0; k < length; k++) {
+				buffer = (buffer << HuffProcessor.BITS_PER_WORD) | (chunk[k] & 0xff);
+				bits += HuffProcessor.BITS_PER_WORD;
+				while (bits >= width) {
+					bits -= width;
+					counts.add((int) (buffer >>> bits) & mask, 1);
+				}
+			}
+			if (checksum != null) {
+				checksum.add(HuffChecksum.of(chunk, 0, length), length);
+			}
+			if (length < chunk.length)
+				break;
+		}
+		return ((buffer & ((1L << bits) - 1)) << 5) | bits;
+	}
+
+	/**
+	 * Count every byte of a file by mapping it into memory, splitting the
+	 * file into one range per thread.
+	 * @param file is the file counted
+	 * @param threads is the number of threads counting
+	 * @return histogram of the bytes in file
+	 */
+	public static long[] count(File file, int threads) {
+		return count(file, threads, null);
+	}
+
+	/**
+	 * Count every byte of a file like count(file, threads), also computing
+	 * the CRC32C of the file. Each thread checksums the slices it counts
+	 * and the checksums are combined in file order.
+	 * @param file is the file counted
+	 * @param threads is the number of threads counting
+	 * @param checksum has the CRC32C of the file added, or is null
+	 * @return histogram of the bytes in file
+	 */
+	public static long[] count(File file, int threads, HuffChecksum checksum) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (threads <= 1 || size < (long) threads * CHUNK_SIZE) {
+				long[] counts = newCounts();
+				countRange(channel, 0, size, counts, checksum);
+				return counts;
+			}
+
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<long[]>> parts = new ArrayList<>();
+				List<HuffChecksum> partChecksums = new ArrayList<>();
+				long step = (size + threads - 1) / threads;
+				for (long start = 0; start < size; start += step) {
+					long from = start;
+					long to = Math.min(size, start + step);
+					HuffChecksum partChecksum = checksum == null ? null : new HuffChecksum();
+					partChecksums.add(partChecksum);
+					parts.add(pool.submit(() -> {
+						long[] counts = newCounts();
+						countRange(channel, from, to, counts, partChecksum);
+						return counts;
+					}));
+				}
+				long[] counts = newCounts();
+				for (int p = 0; p < parts.size(); p++) {
+					long[] partCounts = parts.get(p).get();
+					for (int k = 0; k < counts.length; k++) {
+						counts[k] += partCounts[k];
+					}
+					if (checksum != null) {
+						checksum.add(partChecksums.get(p).value(), partChecksums.get(p).length());
+					}
+				}
+				return counts;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new HuffException("interrupted counting " + file);
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			}
+			finally {
+				pool.shutdownNow();
+			}
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+	}
+
+	private static void countRange(FileChannel channel, long from, long to, long[] counts, HuffChecksum checksum)
+			throws IOException {
+		for (long start = from; start < to; start += MAP_SIZE) {
+			long length = Math.min(MAP_SIZE, to - start);
+			MappedByteBuffer slice = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			if (checksum != null) {
+				checksum.add(HuffChecksum.of(slice), length);
+			}
+			count(slice, counts);
+		}
+	}
+}
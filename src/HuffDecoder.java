@@ -0,0 +1,570 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.Checksum;
+
+/**
+ * Table-driven decoder for the bits written by HuffProcessor. Rather than
+ * reading one bit at a time and following myLeft/myRight pointers, the
+ * decoder looks at the next TABLE_BITS bits of input and resolves the whole
+ * symbol with a single array lookup. Codes longer than TABLE_BITS use the
+ * table to skip their first TABLE_BITS bits and then walk a small array
+ * trie holding just the rest of the long codes, one bit at a time. When
+ * every code is shorter than TABLE_BITS the table only covers the longest
+ * code, so the many small tables of order-1 decoding stay in cache.
+ * <P>
+ * Tables are built from a HuffCodes, so the same decoder works for codes
+ * read as a tree and for canonical codes read as lengths. The tables are
+ * never changed after construction, so one decoder can be shared by
+ * several threads.
+ * <P>
+ * Besides one stream ending in PSEUDO_EOF, a decoder reads blocks whose
+ * codes were split round-robin into several streams (see
+ * HuffProcessor.setStreams), decoding one symbol from each stream per
+ * round.
+ */
+
+public class HuffDecoder {
+
+	public static final int TABLE_BITS = 11;
+
+	private static final int LENGTH_MASK = 0xff;
+	private static final int WINDOW_BITS = 64;
+	private static final int REFILL_BITS = 32;
+	private static final int INVALID = -1;
+	private static final int OUTPUT_CHUNK = 4096;
+	// a stream's window is refilled when it holds no more than this, so a
+	// table lookup always has its bits after a refill, away from the end
+	private static final int FAST_BITS = WINDOW_BITS - HuffProcessor.BITS_PER_WORD;
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class,
+			ByteOrder.BIG_ENDIAN);
+
+	// (symbol << 8) | code length, or (trie node << 8) when the code is
+	// longer than TABLE_BITS, or INVALID when no code starts this way
+	private final int[] myTable;
+	private final int myTableBits;
+	// two entries per node: a child node (> 0), ~symbol (< 0) or unused (0)
+	private int[] myTrie;
+	private int myNodes;
+
+	/**
+	 * Build decoding tables for a Huffman tree
+	 * @param root is the root of the tree, e.g., as read from a header
+	 */
+	public HuffDecoder(HuffNode root) {
+		this(new HuffCodes(root));
+	}
+
+	/**
+	 * Build decoding tables for a set of codes
+	 * @param codes gives the code and length of every symbol
+	 */
+	public HuffDecoder(HuffCodes codes) {
+		this(codes, TABLE_BITS);
+	}
+
+	/**
+	 * Build decoding tables for a set of codes with a smaller table, for
+	 * when many decoders are used at once and their tables compete for
+	 * cache
+	 * @param codes gives the code and length of every symbol
+	 * @param tableBits is the most bits resolved by one lookup, in
+	 * [1, TABLE_BITS]
+	 */
+	public HuffDecoder(HuffCodes codes, int tableBits) {
+		if (tableBits < 1 || tableBits > TABLE_BITS) {
+			throw new IllegalArgumentException("table bits must be in [1, " + TABLE_BITS + "]: " + tableBits);
+		}
+		myTableBits = Math.max(1, Math.min(tableBits, codes.maxLength()));
+		myTable = new int[1 << myTableBits];
+		Arrays.fill(myTable, INVALID);
+		myTrie = new int[2 * 16];
+		myNodes = 1;	// node 0 is never used, so 0 can mean no child
+		for (int s = 0; s < codes.size(); s++) {
+			int length = codes.length(s);
+			if (length > myTableBits) {
+				addLongCode(s, codes.code(s), length);
+			}
+			else if (length > 0) {
+				// every index starting with the code maps to this symbol
+				int span = 1 << (myTableBits - length);
+				int start = (int) codes.code(s) << (myTableBits - length);
+				int entry = (s << 8) | length;
+				for (int k = 0; k < span; k++) {
+					myTable[start + k] = entry;
+				}
+			}
+		}
+	}
+
+	private void addLongCode(int symbol, long code, int length) {
+		int index = (int) (code >>> (length - myTableBits));
+		if (myTable[index] == INVALID) {
+			myTable[index] = newNode() << 8;
+		}
+		int node = myTable[index] >>> 8;
+		for (int bit = length - myTableBits - 1; bit > 0; bit--) {
+			int child = 2 * node + (int) ((code >>> bit) & 1);
+			if (myTrie[child] == 0) {
+				int next = newNode();
+				myTrie[child] = next;
+			}
+			node = myTrie[child];
+		}
+		myTrie[2 * node + (int) (code & 1)] = ~symbol;
+	}
+
+	private int newNode() {
+		if (2 * myNodes + 2 > myTrie.length) {
+			myTrie = Arrays.copyOf(myTrie, 2 * myTrie.length);
+		}
+		return myNodes++;
+	}
+
+	/**
+	 * Decode symbols from in, writing each to out, until PSEUDO_EOF is read.
+	 * Output is identical to following the tree one bit at a time.
+	 * @param in is positioned at the first bit after the header
+	 * @param out receives BITS_PER_WORD bits per decoded symbol
+	 * @throws HuffException if input ends before PSEUDO_EOF
+	 */
+	public void decode(BitInputStream in, BitOutputStream out) {
+		decode(in, out, null);
+	}
+
+	/**
+	 * Decode symbols from in, writing each to out, until PSEUDO_EOF is read,
+	 * and add every symbol written to a checksum
+	 * @param in is positioned at the first bit after the header
+	 * @param out receives BITS_PER_WORD bits per decoded symbol
+	 * @param checksum is updated with the bytes written, or is null
+	 * @throws HuffException if input ends before PSEUDO_EOF
+	 */
+	public void decode(BitInputStream in, BitOutputStream out, Checksum checksum) {
+		decode(new HuffDecoder[] { this }, 0, in, out, checksum);
+	}
+
+	/**
+	 * Decode order-1 codes, where the code of each symbol depends on the
+	 * byte before it, until PSEUDO_EOF is read. Switching tables costs one
+	 * array lookup per symbol, so decoding is about as fast as with one
+	 * table.
+	 * @param contexts holds the decoder for the symbols after each byte,
+	 * null for bytes no symbol follows; the first symbol uses contexts[0]
+	 * @param in is positioned at the first bit after the headers
+	 * @param out receives BITS_PER_WORD bits per decoded symbol
+	 * @param checksum is updated with the bytes written, or is null
+	 * @throws HuffException if input ends before PSEUDO_EOF
+	 */
+	public static void decode(HuffDecoder[] contexts, BitInputStream in, BitOutputStream out, Checksum checksum) {
+		if (contexts.length != HuffProcessor.ALPH_SIZE) {
+			throw new IllegalArgumentException("need " + HuffProcessor.ALPH_SIZE + " contexts");
+		}
+		decode(contexts, HuffProcessor.ALPH_SIZE - 1, in, out, checksum);
+	}
+
+	/**
+	 * The decoding loop: the table for each symbol is contexts[previous
+	 * symbol & mask], so a mask of 0 always uses contexts[0]
+	 */
+	private static void decode(HuffDecoder[] contexts, int mask, BitInputStream in, BitOutputStream out,
+			Checksum checksum) {
+		// symbols are written and checksummed a chunk at a time, not one
+		// call per byte
+		byte[] chunk = new byte[OUTPUT_CHUNK];
+		int chunked = 0;
+		long window = 0;     // unread bits, left-aligned
+		int count = 0;       // number of valid bits in window
+		boolean exhausted = false;
+		HuffDecoder decoder = contexts[0];
+
+		while (true) {
+			if (decoder == null) {
+				throw new HuffException("bad input, no codes for this context");
+			}
+			if (count <= WINDOW_BITS - REFILL_BITS && !exhausted) {
+				// a word at a time; skipBits says whether the word was all there
+				int bits = in.peekBits(REFILL_BITS);
+				if (in.skipBits(REFILL_BITS)) {
+					window |= Integer.toUnsignedLong(bits) << (WINDOW_BITS - REFILL_BITS - count);
+					count += REFILL_BITS;
+				}
+			}
+			while (count <= WINDOW_BITS - HuffProcessor.BITS_PER_WORD && !exhausted) {
+				int bits = in.readBits(HuffProcessor.BITS_PER_WORD);
+				if (bits == -1) {
+					// fewer than BITS_PER_WORD bits left, take them one at a time
+					while ((bits = in.readBits(1)) != -1) {
+						window |= (long) bits << (WINDOW_BITS - 1 - count);
+						count += 1;
+					}
+					exhausted = true;
+				}
+				else {
+					window |= (long) bits << (WINDOW_BITS - HuffProcessor.BITS_PER_WORD - count);
+					count += HuffProcessor.BITS_PER_WORD;
+				}
+			}
+
+			int tableBits = decoder.myTableBits;
+			int entry = decoder.myTable[(int) (window >>> (WINDOW_BITS - tableBits))];
+			int length = entry & LENGTH_MASK;
+			int symbol;
+
+			if (entry == INVALID) {
+				throw new HuffException("bad input, not a valid code");
+			}
+			if (length != 0) {
+				if (length > count) {
+					throw new HuffException("bad input, no PSEUDO_EOF");
+				}
+				window <<= length;
+				count -= length;
+				symbol = entry >>> 8;
+			}
+			else {
+				if (count < tableBits) {
+					throw new HuffException("bad input, no PSEUDO_EOF");
+				}
+				window <<= tableBits;
+				count -= tableBits;
+				int node = entry >>> 8;
+				while (true) {
+					int bit;
+					if (count > 0) {
+						bit = (int) (window >>> (WINDOW_BITS - 1));
+						window <<= 1;
+						count -= 1;
+					}
+					else {
+						// window is empty, so the next bit comes straight from in
+						bit = in.readBits(1);
+						if (bit == -1) {
+							throw new HuffException("bad input, no PSEUDO_EOF");
+						}
+					}
+					int next = decoder.myTrie[2 * node + bit];
+					if (next < 0) {
+						symbol = ~next;
+						break;
+					}
+					if (next == 0) {
+						throw new HuffException("bad input, not a valid code");
+					}
+					node = next;
+				}
+			}
+
+			if (symbol == HuffProcessor.PSEUDO_EOF) {
+				break;
+			}
+			decoder = contexts[symbol & mask];
+			chunk[chunked++] = (byte) symbol;
+			if (chunked == chunk.length) {
+				flushChunk(chunk, chunked, out, checksum);
+				chunked = 0;
+			}
+		}
+		flushChunk(chunk, chunked, out, checksum);
+	}
+
+	/**
+	 * Decode codes for symbols of width bits (see
+	 * HuffProcessor.setSymbolWidth) until the end code, writing the value
+	 * of each, then the bits the input ended with. The codes are for
+	 * positions in values, the end code the one past the last, so an
+	 * alphabet that is mostly absent needs no table entry for what is
+	 * absent.
+	 * @param in is positioned at the first bit after the header
+	 * @param out receives width bits per decoded symbol, then the tail
+	 * @param values holds the symbol each code stands for
+	 * @param width is the bits per symbol, at most MAX_SYMBOL_WIDTH
+	 * @param tail holds the last tailBits bits of the original
+	 * @param tailBits is the number of bits after the last symbol, fewer
+	 * than width
+	 * @param checksum is updated with the bytes written, or is null
+	 * @throws HuffException if input ends before the end code or the
+	 * output does not end on a byte
+	 */
+	public void decode(BitInputStream in, BitOutputStream out, int[] values, int width, int tail, int tailBits,
+			Checksum checksum) {
+		byte[] chunk = new byte[OUTPUT_CHUNK];
+		int chunked = 0;
+		long pending = 0;	// bits decoded but not in chunk, low-order
+		int bits = 0;
+		while (true) {
+			int symbol = nextSymbol(in);
+			boolean end = symbol == values.length;
+			pending = (pending << (end ? tailBits : width)) | (end ? tail : values[symbol]);
+			bits += end ? tailBits : width;
+			while (bits >= HuffProcessor.BITS_PER_WORD) {
+				bits -= HuffProcessor.BITS_PER_WORD;
+				chunk[chunked++] = (byte) (pending >>> bits);
+				if (chunked == chunk.length) {
+					flushChunk(chunk, chunked, out, checksum);
+					chunked = 0;
+				}
+			}
+			if (end)
+				break;
+		}
+		flushChunk(chunk, chunked, out, checksum);
+		if (bits != 0) {
+			throw new HuffException("bad input, symbols do not end on a byte");
+		}
+	}
+
+	/**
+	 * Read one code from in a table lookup at a time, for alphabets whose
+	 * symbols are not bytes
+	 */
+	private int nextSymbol(BitInputStream in) {
+		int index = in.peekBits(myTableBits);
+		if (index == -1) {
+			throw new HuffException("bad input, no PSEUDO_EOF");
+		}
+		int entry = myTable[index];
+		if (entry == INVALID) {
+			throw new HuffException("bad input, not a valid code");
+		}
+		int length = entry & LENGTH_MASK;
+		if (length != 0) {
+			if (!in.skipBits(length)) {
+				throw new HuffException("bad input, no PSEUDO_EOF");
+			}
+			return entry >>> 8;
+		}
+		if (!in.skipBits(myTableBits)) {
+			throw new HuffException("bad input, no PSEUDO_EOF");
+		}
+		int node = entry >>> 8;
+		while (true) {
+			int bit = in.readBits(1);
+			if (bit == -1) {
+				throw new HuffException("bad input, no PSEUDO_EOF");
+			}
+			int next = myTrie[2 * node + bit];
+			if (next < 0) {
+				return ~next;
+			}
+			if (next == 0) {
+				throw new HuffException("bad input, not a valid code");
+			}
+			node = next;
+		}
+	}
+
+	/**
+	 * Decode count symbols written round-robin to several streams that
+	 * share these codes: symbol k is in stream k % streams. The streams
+	 * are independent, so the lookups of one round do not wait for each
+	 * other and the processor overlaps them, which a single stream, where
+	 * each lookup needs the length of the code before it, cannot do.
+	 * @param data holds the streams, each padded to a byte, one after
+	 * another
+	 * @param bounds has stream k in data[bounds[k], bounds[k + 1])
+	 * @param out receives the symbols
+	 * @param count is the number of symbols, at most out.length
+	 * @throws HuffException if a stream ends early or has a code that is
+	 * not valid
+	 */
+	public void decode(byte[] data, int[] bounds, byte[] out, int count) {
+		int streams = bounds.length - 1;
+		long[] windows = new long[streams];
+		int[] counts = new int[streams];
+		int[] positions = Arrays.copyOf(bounds, streams);
+		int[] table = myTable;
+		int tableBits = myTableBits;
+		int rounds = count / streams;
+		int o = 0;
+		for (int round = 0; round < rounds; round++) {
+			if (streams == 4) {
+				// the fast loop stops at a long code, which this round decodes
+				round = decodeFour(data, bounds, out, round, rounds, windows, counts, positions);
+				o = 4 * round;
+				if (round == rounds) {
+					break;
+				}
+			}
+			for (int k = 0; k < streams; k++) {
+				if (counts[k] <= FAST_BITS) {
+					refill(data, bounds[k + 1], k, windows, counts, positions);
+				}
+				long window = windows[k];
+				int entry = table[(int) (window >>> (WINDOW_BITS - tableBits))];
+				int length = entry & LENGTH_MASK;
+				if (length == 0 || length > counts[k]) {
+					// INVALID, a long code or the end of the stream
+					out[o++] = (byte) decodeSlow(data, bounds[k + 1], k, windows, counts, positions);
+					continue;
+				}
+				windows[k] = window << length;
+				counts[k] -= length;
+				out[o++] = (byte) (entry >>> 8);
+			}
+		}
+		for (int k = 0; o < count; k++) {
+			out[o++] = (byte) decodeSlow(data, bounds[k + 1], k, windows, counts, positions);
+		}
+	}
+
+	/**
+	 * The loop of decode for the default 4 streams, with the state of
+	 * each stream in locals rather than arrays so that the four chains
+	 * do not go through memory. Runs whole rounds from round while every
+	 * stream has a long of input left and every code is in the table.
+	 * @return the round it stopped at, with the state back in the arrays
+	 */
+	private int decodeFour(byte[] data, int[] bounds, byte[] out, int round, int rounds, long[] windows,
+			int[] counts, int[] positions) {
+		int[] table = myTable;
+		int shift = WINDOW_BITS - myTableBits;
+		long w0 = windows[0], w1 = windows[1], w2 = windows[2], w3 = windows[3];
+		int c0 = counts[0], c1 = counts[1], c2 = counts[2], c3 = counts[3];
+		int p0 = positions[0], p1 = positions[1], p2 = positions[2], p3 = positions[3];
+		int e0 = bounds[1] - Long.BYTES, e1 = bounds[2] - Long.BYTES, e2 = bounds[3] - Long.BYTES,
+				e3 = bounds[4] - Long.BYTES;
+		int o = 4 * round;
+		for (; round < rounds && p0 <= e0 && p1 <= e1 && p2 <= e2 && p3 <= e3; round++) {
+			w0 |= (long) LONGS.get(data, p0) >>> c0;
+			p0 += (WINDOW_BITS - 1 - c0) >>> 3;
+			c0 |= FAST_BITS;
+			w1 |= (long) LONGS.get(data, p1) >>> c1;
+			p1 += (WINDOW_BITS - 1 - c1) >>> 3;
+			c1 |= FAST_BITS;
+			w2 |= (long) LONGS.get(data, p2) >>> c2;
+			p2 += (WINDOW_BITS - 1 - c2) >>> 3;
+			c2 |= FAST_BITS;
+			w3 |= (long) LONGS.get(data, p3) >>> c3;
+			p3 += (WINDOW_BITS - 1 - c3) >>> 3;
+			c3 |= FAST_BITS;
+			int t0 = table[(int) (w0 >>> shift)];
+			int t1 = table[(int) (w1 >>> shift)];
+			int t2 = table[(int) (w2 >>> shift)];
+			int t3 = table[(int) (w3 >>> shift)];
+			int l0 = t0 & LENGTH_MASK, l1 = t1 & LENGTH_MASK, l2 = t2 & LENGTH_MASK, l3 = t3 & LENGTH_MASK;
+			// lengths are in [1, TABLE_BITS] except 0 for a long code and
+			// 0xff for INVALID, either of which leaves the round to decode
+			if (((l0 - 1) | (l1 - 1) | (l2 - 1) | (l3 - 1)) >>> 4 != 0) {
+				break;
+			}
+			w0 <<= l0;
+			c0 -= l0;
+			w1 <<= l1;
+			c1 -= l1;
+			w2 <<= l2;
+			c2 -= l2;
+			w3 <<= l3;
+			c3 -= l3;
+			out[o] = (byte) (t0 >>> 8);
+			out[o + 1] = (byte) (t1 >>> 8);
+			out[o + 2] = (byte) (t2 >>> 8);
+			out[o + 3] = (byte) (t3 >>> 8);
+			o += 4;
+		}
+		windows[0] = w0;
+		windows[1] = w1;
+		windows[2] = w2;
+		windows[3] = w3;
+		counts[0] = c0;
+		counts[1] = c1;
+		counts[2] = c2;
+		counts[3] = c3;
+		positions[0] = p0;
+		positions[1] = p1;
+		positions[2] = p2;
+		positions[3] = p3;
+		return round;
+	}
+
+	/**
+	 * Add whole bytes of stream k to its window, a long at a time away
+	 * from the end of the stream. Bits of a partial byte read with a long
+	 * are read again by the next refill, which is harmless since the
+	 * window is ORed with the same bits.
+	 */
+	private static void refill(byte[] data, int end, int k, long[] windows, int[] counts, int[] positions) {
+		int position = positions[k];
+		int count = counts[k];
+		if (position + Long.BYTES <= end) {
+			windows[k] |= (long) LONGS.get(data, position) >>> count;
+			int bytes = (WINDOW_BITS - 1 - count) / HuffProcessor.BITS_PER_WORD;
+			positions[k] = position + bytes;
+			counts[k] = count + bytes * HuffProcessor.BITS_PER_WORD;
+			return;
+		}
+		long window = windows[k];
+		while (count <= FAST_BITS && position < end) {
+			window |= (long) (data[position++] & 0xff) << (FAST_BITS - count);
+			count += HuffProcessor.BITS_PER_WORD;
+		}
+		windows[k] = window;
+		counts[k] = count;
+		positions[k] = position;
+	}
+
+	/**
+	 * Decode one symbol from stream k whatever its code: refilling first,
+	 * walking the trie past the table for long codes, and checking for
+	 * the end of the stream and for codes that are not valid
+	 */
+	private int decodeSlow(byte[] data, int end, int k, long[] windows, int[] counts, int[] positions) {
+		if (counts[k] <= FAST_BITS) {
+			refill(data, end, k, windows, counts, positions);
+		}
+		long window = windows[k];
+		int count = counts[k];
+		int entry = myTable[(int) (window >>> (WINDOW_BITS - myTableBits))];
+		int length = entry & LENGTH_MASK;
+		if (entry == INVALID) {
+			throw new HuffException("bad input, not a valid code");
+		}
+		if (length != 0) {
+			if (length > count) {
+				throw new HuffException("bad input, stream ends early");
+			}
+			windows[k] = window << length;
+			counts[k] = count - length;
+			return entry >>> 8;
+		}
+		if (count < myTableBits) {
+			throw new HuffException("bad input, stream ends early");
+		}
+		window <<= myTableBits;
+		count -= myTableBits;
+		int node = entry >>> 8;
+		while (true) {
+			if (count == 0) {
+				windows[k] = window;
+				counts[k] = count;
+				refill(data, end, k, windows, counts, positions);
+				window = windows[k];
+				count = counts[k];
+				if (count == 0) {
+					throw new HuffException("bad input, stream ends early");
+				}
+			}
+			int bit = (int) (window >>> (WINDOW_BITS - 1));
+			window <<= 1;
+			count -= 1;
+			int next = myTrie[2 * node + bit];
+			if (next < 0) {
+				windows[k] = window;
+				counts[k] = count;
+				return ~next;
+			}
+			if (next == 0) {
+				throw new HuffException("bad input, not a valid code");
+			}
+			node = next;
+		}
+	}
+
+	private static void flushChunk(byte[] chunk, int length, BitOutputStream out, Checksum checksum) {
+		out.writeBytes(chunk, 0, length);
+		if (checksum != null) {
+			checksum.update(chunk, 0, length);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A Java Flight Recorder event for one compress or decompress call. Give
+ * a HuffProcessor METRICS with setMetrics and start a recording, e.g.,
+ * java -XX:StartFlightRecording ..., to see where the time of every call
+ * went next to the GC, I/O and CPU samples of the same run. The event
+ * begins when the call starts and is committed when it finishes, with
+ * the times of the call as fields, so it spans the call on the timeline;
+ * when no recording has it enabled nothing is copied or written.
+ */
+
+@Name("huff.Call")
+@Label("Huffman Call")
+@Category("Huffman")
+@Description("A compress or decompress call and the time spent in each phase")
+@StackTrace(false)
+public class HuffEvent extends Event {
+
+	/**
+	 * Metrics that commit a HuffEvent for every call
+	 */
+	public static final HuffMetrics METRICS = new HuffMetrics() {
+		@Override
+		public void begin(HuffStats stats) {
+			HuffEvent event = new HuffEvent();
+			if (event.isEnabled()) {
+				event.begin();
+				stats.event(event);
+			}
+		}
+
+		@Override
+		public void record(HuffStats stats) {
+			emit(stats);
+		}
+	};
+
+	@Label("Compress")
+	boolean compress;
+
+	@Label("Format")
+	@Description("Magic number of the compressed format")
+	int format;
+
+	@Label("Bytes In")
+	@DataAmount
+	long bytesIn;
+
+	@Label("Bytes Out")
+	@DataAmount
+	long bytesOut;
+
+	@Label("Header Bits")
+	long headerBits;
+
+	@Label("Symbols")
+	long symbols;
+
+	@Label("Max Code Length")
+	int maxCodeLength;
+
+	@Label("Total Time")
+	@Timespan
+	long totalNanos;
+
+	@Label("Count Time")
+	@Timespan
+	long countNanos;
+
+	@Label("Build Time")
+	@Timespan
+	long buildNanos;
+
+	@Label("Header Time")
+	@Timespan
+	long headerNanos;
+
+	@Label("Code Time")
+	@Timespan
+	long codeNanos;
+
+	@Label("I/O Time")
+	@Timespan
+	long ioNanos;
+
+	private static void emit(HuffStats stats) {
+		HuffEvent event = stats.event();
+		if (event == null) {
+			return;
+		}
+		event.compress = stats.isCompress();
+		event.format = stats.format();
+		event.bytesIn = stats.bytesIn();
+		event.bytesOut = stats.bytesOut();
+		event.headerBits = stats.headerBits();
+		event.symbols = stats.symbols();
+		event.maxCodeLength = stats.maxCodeLength();
+		event.totalNanos = stats.totalNanos();
+		event.countNanos = stats.nanos(HuffStats.Phase.COUNT);
+		event.buildNanos = stats.nanos(HuffStats.Phase.BUILD);
+		event.headerNanos = stats.nanos(HuffStats.Phase.HEADER);
+		event.codeNanos = stats.nanos(HuffStats.Phase.CODE);
+		event.ioNanos = stats.nanos(HuffStats.Phase.IO);
+		event.commit();
+	}
+}
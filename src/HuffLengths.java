@@ -0,0 +1,262 @@
+import java.util.Arrays;
+
+/**
+ * Computes Huffman code lengths directly from symbol counts. The lengths
+ * can be turned into codes with new HuffCodes(lengths) and stored compactly
+ * with HuffCodes.writeLengths.
+ * <P>
+ * limited builds the best code whose longest code is at most a given
+ * length, using the package-merge algorithm of Larmore and Hirschberg.
+ * Capping code lengths keeps every code within one writeBits call and
+ * keeps decoding tables small, at the price of a few more bits in total
+ * when the counts are very skewed.
+ * <P>
+ * An instance computes unlimited (ordinary Huffman) lengths with the
+ * two-queue method over primitive arrays: leaves sorted by count form one
+ * queue, internal nodes are created in order of weight and so form the
+ * other, and each step merges the two lightest fronts. Weights are longs
+ * and the arrays are reused, so compute allocates nothing; HuffProcessor
+ * also reuses the lengths and HuffCodes it builds into for each input or
+ * block. An instance is not thread-safe; use one per thread.
+ */
+
+public class HuffLengths {
+
+	private int[] mySymbols;
+	private long[] myKeys;
+	private long[] myWeights;
+	private int[] myParents;
+
+	/**
+	 * Create a builder for alphabets of ALPH_SIZE + 1 symbols
+	 */
+	public HuffLengths() {
+		this(HuffProcessor.ALPH_SIZE + 1);
+	}
+
+	/**
+	 * Create a builder for alphabets of up to alphabetSize symbols,
+	 * larger alphabets make the builder grow
+	 * @param alphabetSize is the number of symbols
+	 */
+	public HuffLengths(int alphabetSize) {
+		mySymbols = new int[alphabetSize];
+		myKeys = new long[alphabetSize];
+		myWeights = new long[2 * alphabetSize];
+		myParents = new int[2 * alphabetSize];
+	}
+
+	/**
+	 * Compute Huffman code lengths, the same lengths a tree built by
+	 * repeatedly joining the two lightest subtrees gives.
+	 * @param counts is the number of occurrences of each symbol, symbols
+	 * with a count of 0 get no code
+	 * @param lengths is filled with the code length of each symbol, it
+	 * must be at least as long as counts
+	 * @return lengths
+	 */
+	public int[] compute(long[] counts, int[] lengths) {
+		if (mySymbols.length < counts.length) {
+			mySymbols = new int[counts.length];
+			myKeys = new long[counts.length];
+			myWeights = new long[2 * counts.length];
+			myParents = new int[2 * counts.length];
+		}
+		int n = sortSymbols(counts, lengths);
+		if (n == 0) {
+			return lengths;
+		}
+		if (n == 1) {
+			lengths[mySymbols[0]] = 1;
+			return lengths;
+		}
+
+		// nodes [0, n) are leaves in sorted order, [n, 2n - 1) internal
+		for (int k = 0; k < n; k++) {
+			myWeights[k] = counts[mySymbols[k]];
+		}
+		int leaf = 0;
+		int internal = n;
+		for (int next = n; next < 2 * n - 1; next++) {
+			long weight = 0;
+			for (int pick = 0; pick < 2; pick++) {
+				// leaves win ties, which keeps codes as short as possible
+				int node;
+				if (leaf < n && (internal == next || myWeights[leaf] <= myWeights[internal])) {
+					node = leaf++;
+				}
+				else {
+					node = internal++;
+				}
+				weight += myWeights[node];
+				myParents[node] = next;
+			}
+			myWeights[next] = weight;
+		}
+
+		// parents come after their children, so one backward pass turns
+		// parent links into depths, reusing myParents for the depth
+		int root = 2 * n - 2;
+		myParents[root] = 0;
+		for (int k = root - 1; k >= n; k--) {
+			myParents[k] = myParents[myParents[k]] + 1;
+		}
+		for (int k = 0; k < n; k++) {
+			lengths[mySymbols[k]] = myParents[myParents[k]] + 1;
+		}
+		return lengths;
+	}
+
+	/**
+	 * Put the symbols that occur into mySymbols sorted by count, then
+	 * by symbol, and zero lengths.
+	 * @return number of symbols that occur
+	 */
+	private int sortSymbols(long[] counts, int[] lengths) {
+		Arrays.fill(lengths, 0, counts.length, 0);
+		return sortByCount(counts, mySymbols, myKeys);
+	}
+
+	/**
+	 * Put the symbols that occur into symbols sorted by count, then by
+	 * symbol
+	 * @param keys is room for the sort, as long as symbols
+	 * @return number of symbols that occur
+	 */
+	private static int sortByCount(long[] counts, int[] symbols, long[] keys) {
+		// count and symbol packed in one long sort in place with no
+		// allocation, as long as the counts leave room for the symbol
+		int symbolBits = Integer.SIZE - Integer.numberOfLeadingZeros(counts.length);
+		long maxCount = Long.MAX_VALUE >>> symbolBits;
+		boolean packed = true;
+		int n = 0;
+		for (int s = 0; s < counts.length; s++) {
+			if (counts[s] > 0) {
+				packed &= counts[s] <= maxCount;
+				keys[n] = (counts[s] << symbolBits) | s;
+				symbols[n++] = s;
+			}
+		}
+		if (packed) {
+			Arrays.sort(keys, 0, n);
+			long mask = (1L << symbolBits) - 1;
+			for (int k = 0; k < n; k++) {
+				symbols[k] = (int) (keys[k] & mask);
+			}
+			return n;
+		}
+		// counts too large to pack, insertion sort the symbols instead,
+		// which keeps equal counts in symbol order
+		for (int j = 1; j < n; j++) {
+			int s = symbols[j];
+			int k = j;
+			while (k > 0 && counts[symbols[k - 1]] > counts[s]) {
+				symbols[k] = symbols[k - 1];
+				k -= 1;
+			}
+			symbols[k] = s;
+		}
+		return n;
+	}
+
+	/**
+	 * Return the number of bits needed to encode every symbol counted
+	 * @param counts is the number of occurrences of each symbol
+	 * @param lengths is the code length of each symbol
+	 * @return sum over all symbols of count times length
+	 */
+	public static long cost(long[] counts, int[] lengths) {
+		long bits = 0;
+		for (int k = 0; k < counts.length; k++) {
+			bits += counts[k] * lengths[k];
+		}
+		return bits;
+	}
+
+	/**
+	 * Compute optimal code lengths subject to a maximum code length
+	 * @param counts is the number of occurrences of each symbol, symbols
+	 * with a count of 0 get no code
+	 * @param maxLength is the longest code allowed
+	 * @return code length of each symbol
+	 * @throws HuffException if 2^maxLength codes are not enough for the
+	 * symbols that occur
+	 */
+	public static int[] limited(long[] counts, int maxLength) {
+		int[] lengths = new int[counts.length];
+		int symbols = 0;
+		for (long count : counts) {
+			if (count > 0) {
+				symbols += 1;
+			}
+		}
+		if (symbols == 0) {
+			return lengths;
+		}
+		if (maxLength < 1 || maxLength > HuffCodes.MAX_CODE_LENGTH
+				|| (maxLength < Integer.SIZE - 1 && symbols > (1 << maxLength))) {
+			throw new HuffException(symbols + " symbols do not fit in codes of " + maxLength + " bits");
+		}
+
+		// leaves sorted by weight, ties broken by symbol, as compute sorts them
+		int[] order = new int[symbols];
+		sortByCount(counts, order, new long[symbols]);
+		long[] leaves = new long[symbols];
+		for (int k = 0; k < symbols; k++) {
+			leaves[k] = counts[order[k]];
+		}
+		if (symbols == 1) {
+			lengths[order[0]] = 1;
+			return lengths;
+		}
+
+		// level 0 is the deepest list, just the leaves; each level above
+		// merges the leaves with pairs ("packages") of the level below
+		long[][] weights = new long[maxLength][];
+		int[][] leafOf = new int[maxLength][];	// leaf index, or -1 for a package
+		weights[0] = leaves.clone();
+		leafOf[0] = new int[symbols];
+		for (int k = 0; k < symbols; k++) {
+			leafOf[0][k] = k;
+		}
+		for (int level = 1; level < maxLength; level++) {
+			long[] below = weights[level - 1];
+			int packages = below.length / 2;
+			long[] merged = new long[symbols + packages];
+			int[] from = new int[symbols + packages];
+			int leaf = 0;
+			int pack = 0;
+			for (int k = 0; k < merged.length; k++) {
+				long packWeight = pack < packages ? below[2 * pack] + below[2 * pack + 1] : Long.MAX_VALUE;
+				if (leaf < symbols && leaves[leaf] <= packWeight) {
+					merged[k] = leaves[leaf];
+					from[k] = leaf++;
+				}
+				else {
+					merged[k] = packWeight;
+					from[k] = -1;
+					pack++;
+				}
+			}
+			weights[level] = merged;
+			leafOf[level] = from;
+		}
+
+		// the cheapest 2n - 2 items of the top level decide the lengths:
+		// a leaf's code length is the number of times it is chosen
+		int take = 2 * symbols - 2;
+		for (int level = maxLength - 1; level >= 0 && take > 0; level--) {
+			int packages = 0;
+			for (int k = 0; k < take; k++) {
+				if (leafOf[level][k] >= 0) {
+					lengths[order[leafOf[level][k]]] += 1;
+				}
+				else {
+					packages += 1;
+				}
+			}
+			take = 2 * packages;
+		}
+		return lengths;
+	}
+}
@@ -1,4 +1,5 @@
 import java.io.*;
+import java.util.Arrays;
 
 public class HuffMainCompress {
 	public static void main(String[] args) {
@@ -13,6 +14,9 @@ public class HuffMainCompress {
 		BitInputStream bis = new BitInputStream(inf);
 		BitOutputStream bos = new BitOutputStream(outf);
 		HuffProcessor hp = new HuffProcessor();
+		if (Arrays.asList(args).contains("-stats")) {
+			hp.setMetrics(System.out::println);// time spent in each phase
+		}
 		hp.compress(bis, bos);
 		System.out.printf("compress from %s to %s\n", 
 		                   inf.getName(),outf.getName());
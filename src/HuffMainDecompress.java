@@ -1,5 +1,6 @@
 import java.io.File;
 import java.io.*;
+import java.util.Arrays;
 
 public class HuffMainDecompress {
 	public static void main(String[] args) {
@@ -15,6 +16,9 @@ public class HuffMainDecompress {
 		BitInputStream bis = new BitInputStream(inf);
 		BitOutputStream bos = new BitOutputStream(outf);
 		HuffProcessor hp = new HuffProcessor();
+		if (Arrays.asList(args).contains("-stats")) {
+			hp.setMetrics(System.out::println);// time spent in each phase
+		}
 		hp.decompress(bis, bos);
 		System.out.printf("uncompress from %s to %s\n", 
 				           inf.getName(),outf.getName());		
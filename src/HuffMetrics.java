@@ -0,0 +1,64 @@
+/**
+ * Receives the HuffStats of every compress and decompress call made by a
+ * HuffProcessor given this with setMetrics. Without one, a HuffProcessor
+ * reads no clocks and keeps no statistics, so metrics cost nothing when
+ * they are not used.
+ * <P>
+ * Calls can finish on several threads at once if a HuffProcessor is
+ * shared, so record must be thread-safe. HuffEvent.METRICS records Java
+ * Flight Recorder events and HuffMetricsBean keeps totals for JMX; to
+ * have both, and printing too, combine them with of or and.
+ */
+
+public interface HuffMetrics {
+
+	/**
+	 * Called once when a call starts, before it reads or writes anything,
+	 * with the stats that record gets when it finishes. Does nothing
+	 * unless overridden; HuffEvent.METRICS starts its event here so the
+	 * event spans the call.
+	 * @param stats is the call's stats, still empty
+	 */
+	default void begin(HuffStats stats) {
+	}
+
+	/**
+	 * Called once when a call finishes, not when it throws
+	 * @param stats is what the call did, not changed after this
+	 */
+	void record(HuffStats stats);
+
+	/**
+	 * Return metrics that pass every call to this and then to other
+	 * @param other also receives every call
+	 * @return the combined metrics
+	 */
+	default HuffMetrics and(HuffMetrics other) {
+		return of(this, other);
+	}
+
+	/**
+	 * Return metrics that pass every call to each of metrics in turn, e.g.,
+	 * HuffMetrics.of(HuffEvent.METRICS, bean, System.out::println)
+	 * @param metrics all receive every call, in the order given
+	 * @return the combined metrics
+	 */
+	static HuffMetrics of(HuffMetrics... metrics) {
+		HuffMetrics[] all = metrics.clone();
+		return new HuffMetrics() {
+			@Override
+			public void begin(HuffStats stats) {
+				for (HuffMetrics each : all) {
+					each.begin(stats);
+				}
+			}
+
+			@Override
+			public void record(HuffStats stats) {
+				for (HuffMetrics each : all) {
+					each.record(stats);
+				}
+			}
+		};
+	}
+}
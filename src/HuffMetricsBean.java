@@ -0,0 +1,160 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics that add every call to running totals, readable over JMX once
+ * registered. Calls finishing on several threads add to the totals
+ * without locking.
+ */
+
+public class HuffMetricsBean implements HuffMetrics, HuffMetricsMXBean {
+
+	public static final String DEFAULT_NAME = "huff:type=HuffMetrics";
+
+	private final LongAdder myCompressCalls = new LongAdder();
+	private final LongAdder myDecompressCalls = new LongAdder();
+	private final LongAdder myBytesIn = new LongAdder();
+	private final LongAdder myBytesOut = new LongAdder();
+	private final LongAdder myHeaderBits = new LongAdder();
+	private final LongAdder mySymbols = new LongAdder();
+	private final AtomicInteger myMaxCodeLength = new AtomicInteger();
+	private final LongAdder[] myNanos = new LongAdder[HuffStats.Phase.values().length];
+
+	public HuffMetricsBean() {
+		for (int k = 0; k < myNanos.length; k++) {
+			myNanos[k] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Register with the platform MBean server as DEFAULT_NAME
+	 * @return this
+	 * @throws RuntimeException if a bean with that name is registered
+	 */
+	public HuffMetricsBean register() {
+		return register(DEFAULT_NAME);
+	}
+
+	/**
+	 * Register with the platform MBean server, e.g., one name per
+	 * HuffProcessor
+	 * @param name is an ObjectName such as "huff:type=HuffMetrics,name=logs"
+	 * @return this
+	 * @throws RuntimeException if name is malformed or taken
+	 */
+	public HuffMetricsBean register(String name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+		}
+		catch (JMException e) {
+			throw new RuntimeException(e);
+		}
+		return this;
+	}
+
+	@Override
+	public void record(HuffStats stats) {
+		(stats.isCompress() ? myCompressCalls : myDecompressCalls).increment();
+		myBytesIn.add(stats.bytesIn());
+		myBytesOut.add(stats.bytesOut());
+		myHeaderBits.add(stats.headerBits());
+		mySymbols.add(stats.symbols());
+		myMaxCodeLength.accumulateAndGet(stats.maxCodeLength(), Math::max);
+		for (HuffStats.Phase phase : HuffStats.Phase.values()) {
+			myNanos[phase.ordinal()].add(stats.nanos(phase));
+		}
+	}
+
+	@Override
+	public long getCompressCalls() {
+		return myCompressCalls.sum();
+	}
+
+	@Override
+	public long getDecompressCalls() {
+		return myDecompressCalls.sum();
+	}
+
+	@Override
+	public long getBytesIn() {
+		return myBytesIn.sum();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return myBytesOut.sum();
+	}
+
+	@Override
+	public long getHeaderBits() {
+		return myHeaderBits.sum();
+	}
+
+	@Override
+	public long getSymbols() {
+		return mySymbols.sum();
+	}
+
+	@Override
+	public int getMaxCodeLength() {
+		return myMaxCodeLength.get();
+	}
+
+	@Override
+	public long getCountNanos() {
+		return myNanos[HuffStats.Phase.COUNT.ordinal()].sum();
+	}
+
+	@Override
+	public long getBuildNanos() {
+		return myNanos[HuffStats.Phase.BUILD.ordinal()].sum();
+	}
+
+	@Override
+	public long getHeaderNanos() {
+		return myNanos[HuffStats.Phase.HEADER.ordinal()].sum();
+	}
+
+	@Override
+	public long getCodeNanos() {
+		return myNanos[HuffStats.Phase.CODE.ordinal()].sum();
+	}
+
+	@Override
+	public long getIoNanos() {
+		return myNanos[HuffStats.Phase.IO.ordinal()].sum();
+	}
+
+	@Override
+	public long getTotalNanos() {
+		long total = 0;
+		for (LongAdder nanos : myNanos) {
+			total += nanos.sum();
+		}
+		return total;
+	}
+
+	@Override
+	public double getSymbolsPerSecond() {
+		long total = getTotalNanos();
+		return total == 0 ? 0 : getSymbols() * 1e9 / total;
+	}
+
+	@Override
+	public void reset() {
+		myCompressCalls.reset();
+		myDecompressCalls.reset();
+		myBytesIn.reset();
+		myBytesOut.reset();
+		myHeaderBits.reset();
+		mySymbols.reset();
+		myMaxCodeLength.set(0);
+		for (LongAdder nanos : myNanos) {
+			nanos.reset();
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * Totals over every call recorded by a HuffMetricsBean, for JMX clients
+ * such as jconsole. Times are in nanoseconds, summed over the calls.
+ */
+
+public interface HuffMetricsMXBean {
+
+	long getCompressCalls();
+
+	long getDecompressCalls();
+
+	long getBytesIn();
+
+	long getBytesOut();
+
+	long getHeaderBits();
+
+	long getSymbols();
+
+	/**
+	 * @return the longest code any call used
+	 */
+	int getMaxCodeLength();
+
+	long getCountNanos();
+
+	long getBuildNanos();
+
+	long getHeaderNanos();
+
+	long getCodeNanos();
+
+	long getIoNanos();
+
+	long getTotalNanos();
+
+	/**
+	 * @return symbols coded per second over all the calls
+	 */
+	double getSymbolsPerSecond();
+
+	/**
+	 * Set every total back to 0
+	 */
+	void reset();
+}
@@ -0,0 +1,186 @@
+import java.io.File;
+import java.util.List;
+
+/**
+ * A Huffman code trained once from sample data and then used for many
+ * inputs, so each input needs neither counting nor a tree in its header.
+ * Small, similar messages compress with a header of a few bytes naming
+ * the model instead of a tree that can be larger than the message.
+ * <P>
+ * Training counts every sample and adds one to every symbol, so bytes
+ * that never occur in the samples still have a (long) code and any input
+ * can be compressed. PSEUDO_EOF is counted once per sample, as it occurs
+ * once per message.
+ * <P>
+ * A model holds its encoding table and decoding tables, built once. They
+ * are never changed, so one model can be shared by any number of threads
+ * and HuffProcessors. See HuffProcessor.setModel and addModel.
+ */
+
+public class HuffModel {
+
+	public static final int MODEL_NUMBER = HuffProcessor.HUFF_NUMBER | 7;
+	public static final int MAX_ID = (1 << 24) - 1;
+
+	private final int myId;
+	private final HuffCodes myCodes;
+	private final HuffDecoder myDecoder;
+
+	/**
+	 * Create a model from code lengths
+	 * @param id identifies the model in compressed data, in [0, MAX_ID]
+	 * @param lengths is the code length of each of the ALPH_SIZE + 1
+	 * symbols, every symbol must have a code
+	 * @throws HuffException if id is out of range or a symbol has no code
+	 */
+	public HuffModel(int id, int[] lengths) {
+		if (id < 0 || id > MAX_ID) {
+			throw new HuffException("model id must be in [0, " + MAX_ID + "]: " + id);
+		}
+		if (lengths.length != HuffProcessor.ALPH_SIZE + 1) {
+			throw new HuffException("model needs " + (HuffProcessor.ALPH_SIZE + 1) + " code lengths");
+		}
+		for (int length : lengths) {
+			if (length == 0) {
+				throw new HuffException("every symbol needs a code in a model");
+			}
+		}
+		myId = id;
+		myCodes = new HuffCodes(lengths);
+		myDecoder = new HuffDecoder(myCodes);
+	}
+
+	/**
+	 * Train a model on sample messages
+	 * @param id identifies the model in compressed data
+	 * @param samples are typical inputs
+	 * @return a model whose codes suit inputs like the samples
+	 */
+	public static HuffModel train(int id, List<byte[]> samples) {
+		long[] counts = HuffCounter.newCounts();
+		for (byte[] sample : samples) {
+			HuffCounter.count(sample, 0, sample.length, counts);
+		}
+		return fromCounts(id, counts, samples.size());
+	}
+
+	/**
+	 * Train a model on sample files, each file one message
+	 * @param id identifies the model in compressed data
+	 * @param samples are typical inputs
+	 * @return a model whose codes suit inputs like the samples
+	 */
+	public static HuffModel train(int id, File... samples) {
+		long[] counts = HuffCounter.newCounts();
+		for (File sample : samples) {
+			long[] fileCounts = HuffCounter.count(sample, 1);
+			for (int s = 0; s < counts.length; s++) {
+				counts[s] += fileCounts[s];
+			}
+		}
+		return fromCounts(id, counts, samples.length);
+	}
+
+	private static HuffModel fromCounts(int id, long[] counts, int messages) {
+		for (int s = 0; s < HuffProcessor.ALPH_SIZE; s++) {
+			counts[s] += 1;
+		}
+		counts[HuffProcessor.PSEUDO_EOF] = messages + 1;
+		int[] lengths = new HuffLengths().compute(counts, new int[counts.length]);
+		return new HuffModel(id, lengths);
+	}
+
+	/**
+	 * Return the id written in data compressed with this model
+	 * @return model id
+	 */
+	public int id() {
+		return myId;
+	}
+
+	/**
+	 * Return the codes used to encode
+	 * @return encoding table
+	 */
+	public HuffCodes codes() {
+		return myCodes;
+	}
+
+	/**
+	 * Return the decoder for data encoded with codes()
+	 * @return decoding tables
+	 */
+	public HuffDecoder decoder() {
+		return myDecoder;
+	}
+
+	/**
+	 * Return the most bytes HuffProcessor.compress(ByteBuffer, ByteBuffer)
+	 * writes for length bytes of input with this model: the longest code
+	 * for every byte, PSEUDO_EOF and the header.
+	 * @param length is the number of bytes compressed
+	 * @return size of a destination buffer that is always large enough
+	 */
+	public long maxCompressedLength(long length) {
+		long bits = (long) myCodes.maxLength() * length + myCodes.length(HuffProcessor.PSEUDO_EOF);
+		return 3 * HuffProcessor.BITS_PER_INT / HuffProcessor.BITS_PER_WORD
+				+ (bits + HuffProcessor.BITS_PER_WORD - 1) / HuffProcessor.BITS_PER_WORD;
+	}
+
+	/**
+	 * Write the model: MODEL_NUMBER, the id in a 32-bit word whose top 8
+	 * bits are 0 (ids are 24 bits, as in the header of HUFF_MODEL data),
+	 * then the code lengths as written by HuffCodes.writeLengths
+	 * @param out is where the model is written
+	 */
+	public void write(BitOutputStream out) {
+		out.writeBits(HuffProcessor.BITS_PER_INT, MODEL_NUMBER);
+		out.writeBits(HuffProcessor.BITS_PER_INT, myId);
+		myCodes.writeLengths(out);
+	}
+
+	/**
+	 * Read a model written by write
+	 * @param in is positioned at the start of a model
+	 * @return the model read
+	 * @throws HuffException if in does not hold a model or its id is not
+	 * in [0, MAX_ID]
+	 */
+	public static HuffModel read(BitInputStream in) {
+		int magic = in.readBits(HuffProcessor.BITS_PER_INT);
+		if (magic != MODEL_NUMBER) {
+			throw new HuffException("not a model file " + magic);
+		}
+		int id = in.readBits(HuffProcessor.BITS_PER_INT);
+		if (id < 0 || id > MAX_ID) {
+			// -1 is the end of the input, larger words are not a 24-bit id
+			throw new HuffException("corrupt model, id word " + Integer.toHexString(id));
+		}
+		return new HuffModel(id, HuffCodes.readLengths(in));
+	}
+
+	/**
+	 * Write the model to a file
+	 * @param file is where the model is saved
+	 */
+	public void save(File file) {
+		BitOutputStream out = new BitOutputStream(file);
+		write(out);
+		out.close();
+	}
+
+	/**
+	 * Read a model saved with save
+	 * @param file holds the model
+	 * @return the model read
+	 */
+	public static HuffModel load(File file) {
+		BitInputStream in = new BitInputStream(file);
+		try {
+			return read(in);
+		}
+		finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/**
+ * Move-to-front transform: each byte is replaced by its position in a
+ * list of all byte values, and then moved to the front of the list.
+ * Bytes that recur soon after each other become small numbers, mostly
+ * 0, which is what Huffman codes do best on. Its length is unchanged.
+ * Best after HuffBlockSort, which groups equal bytes together.
+ */
+
+public class HuffMoveToFront implements HuffTransform {
+
+	@Override
+	public int id() {
+		return MOVE_TO_FRONT;
+	}
+
+	@Override
+	public int maxLength(int length) {
+		return length;
+	}
+
+	@Override
+	public int forward(byte[] in, int length, byte[] out) {
+		byte[] list = identity();
+		for (int k = 0; k < length; k++) {
+			byte b = in[k];
+			int j = 0;
+			while (list[j] != b) {
+				j += 1;
+			}
+			System.arraycopy(list, 0, list, 1, j);
+			list[0] = b;
+			out[k] = (byte) j;
+		}
+		return length;
+	}
+
+	@Override
+	public int inverse(byte[] in, int length, byte[] out) {
+		if (length > out.length) {
+			throw new HuffException("bad input, move-to-front output too long");
+		}
+		byte[] list = identity();
+		for (int k = 0; k < length; k++) {
+			int j = in[k] & 0xff;
+			byte b = list[j];
+			System.arraycopy(list, 0, list, 1, j);
+			list[0] = b;
+			out[k] = b;
+		}
+		return length;
+	}
+
+	private static byte[] identity() {
+		byte[] list = new byte[HuffProcessor.ALPH_SIZE];
+		for (int k = 0; k < list.length; k++) {
+			list[k] = (byte) k;
+		}
+		return list;
+	}
+}
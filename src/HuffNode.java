@@ -52,7 +52,7 @@ public class HuffNode implements Comparable<HuffNode> {
 	 */
 	@Override
 	public int compareTo(HuffNode other) {
-		return myWeight - other.myWeight;
+		return Integer.compare(myWeight, other.myWeight);
 	}
 
 	@Override
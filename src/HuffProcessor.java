@@ -1,4 +1,25 @@
-import java.util.PriorityQueue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
 
 /**
  * Although this class has a history of several years,
@@ -19,9 +40,80 @@ public class HuffProcessor {
 	public static final int PSEUDO_EOF = ALPH_SIZE;
 	public static final int HUFF_NUMBER = 0xface8200;
 	public static final int HUFF_TREE  = HUFF_NUMBER | 1;
+	public static final int HUFF_BLOCKS = HUFF_NUMBER | 2;
+	public static final int HUFF_INDEXED = HUFF_NUMBER | 3;
+	public static final int HUFF_CANON = HUFF_NUMBER | 4;
+	public static final int HUFF_CHECKED = HUFF_NUMBER | 5;
+	public static final int HUFF_MODEL = HUFF_NUMBER | 6;
+	// HUFF_NUMBER | 7 is HuffModel.MODEL_NUMBER
+	public static final int HUFF_ADAPTIVE = HUFF_NUMBER | 8;
+	public static final int HUFF_CONTEXT = HUFF_NUMBER | 9;
+	public static final int HUFF_WIDE = HUFF_NUMBER | 10;
+	
+	// block format flags: headers are canonical code lengths, not trees
+	public static final int FLAG_CANONICAL = 1;
+	public static final int FLAG_CRC = 2;
+	// interleaved streams per block less 1, 4 bits from STREAMS_SHIFT up
+	public static final int STREAMS_SHIFT = 4;
+	public static final int MAX_STREAMS = 16;
+	// transform ids, 4 bits each from bit STAGE_SHIFT up, in the order applied
+	public static final int STAGE_SHIFT = 8;
+	public static final int STAGE_BITS = 4;
+	public static final int MAX_STAGES = (BITS_PER_INT - STAGE_SHIFT) / STAGE_BITS;
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+	public static final int MAX_SYMBOL_WIDTH = 16;
+	
+	// magic, flags and block count, then per block a 64-bit offset and a size
+	private static final int INDEXED_HEADER_BYTES = 12;
+	private static final int INDEX_ENTRY_BYTES = 12;
+	private static final int BLOCK_RECORD_BYTES = 8;
+	// times the contexts sharing one table are chosen, see chooseContextCodes
+	private static final int CONTEXT_PASSES = 3;
+	// smaller decoding tables, so up to ALPH_SIZE + 1 of them fit in cache
+	private static final int CONTEXT_TABLE_BITS = 10;
+	// magic, flags and checksum, then the largest tree header: a leaf of
+	// BITS_PER_WORD + 2 bits for every symbol and a bit per internal node
+	private static final int MAX_HEADER_BYTES = 3 * BITS_PER_INT / BITS_PER_WORD
+			+ ((ALPH_SIZE + 1) * (BITS_PER_WORD + 2) + ALPH_SIZE + BITS_PER_WORD - 1) / BITS_PER_WORD;
 	private int magic;//
 
 	private final int myDebugLevel;
+	private int myBlockSize = DEFAULT_BLOCK_SIZE;
+	private int myThreads = 1;
+	private boolean myCanonical = false;
+	private int myMaxCodeLength = 0;
+	private boolean myVerify = false;
+	private boolean myChecksum = false;
+	private HuffModel myModel = null;
+	private boolean myContext = false;
+	private HuffTransform[] myTransforms = new HuffTransform[0];
+	private int myStreams = 1;
+	private int myWidth = BITS_PER_WORD;
+	private HuffMetrics myMetrics = null;
+	private final Map<Integer, HuffModel> myModels = new ConcurrentHashMap<>();
+	// code length builders reuse their arrays, one per encoding thread
+	private final ThreadLocal<HuffLengths> myBuilders = ThreadLocal.withInitial(HuffLengths::new);
+	// what calls and blocks reuse, one per calling or encoding thread
+	private final ThreadLocal<Scratch> myScratch = ThreadLocal.withInitial(Scratch::new);
+	
+	/**
+	 * The streams, counts and tables compress(ByteBuffer, ByteBuffer),
+	 * decompress(ByteBuffer, ByteBuffer), building codes and encoding
+	 * blocks use on one thread, reset by each use instead of allocated
+	 * again
+	 */
+	private static class Scratch {
+		final BitInputStream in = new BitInputStream(ByteBuffer.allocate(0));
+		final BitOutputStream out = new BitOutputStream(ByteBuffer.allocate(0));
+		final CRC32C crc = new CRC32C();
+		final HuffChecksum checksum = new HuffChecksum();
+		final long[] counts = HuffCounter.newCounts();
+		final int[] lengths = new int[ALPH_SIZE + 1];
+		final HuffCodes codes = new HuffCodes(ALPH_SIZE + 1);
+		// encodeBlock writes here, grown when a block does not fit
+		final BitOutputStream blockOut = new BitOutputStream(ByteBuffer.allocate(0));
+		ByteBuffer encoded = ByteBuffer.allocate(0);
+	}
 	
 	public static final int DEBUG_HIGH = 4;
 	public static final int DEBUG_LOW = 1;
@@ -33,6 +125,216 @@ public class HuffProcessor {
 	public HuffProcessor(int debug) {
 		myDebugLevel = debug;
 	}
+	
+	/**
+	 * Set the number of input bytes compressed under each tree by
+	 * compressBlocks. Memory used by compressBlocks is proportional
+	 * to this size rather than to the size of the input.
+	 * @param size is the block size in bytes
+	 */
+	public void setBlockSize(int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("block size must be positive: " + size);
+		}
+		myBlockSize = size;
+	}
+	
+	/**
+	 * Choose between writing the Huffman tree (the default) and writing
+	 * only the length of each symbol's canonical code as the header.
+	 * Length headers are smaller, and are read without recursion. When
+	 * set, compress writes HUFF_CANON instead of HUFF_TREE and the
+	 * block formats set FLAG_CANONICAL; decompress reads either.
+	 * @param canonical is true to write code-length headers
+	 */
+	public void setCanonical(boolean canonical) {
+		myCanonical = canonical;
+	}
+	
+	/**
+	 * Limit the length of every code, so that each code fits a single
+	 * writeBits call and decoding tables stay small. Only inputs whose
+	 * Huffman tree is deeper than the limit are affected; their codes
+	 * are the best possible within the limit (package-merge), which
+	 * costs a small fraction more bits, printed at DEBUG_LOW and above.
+	 * @param maxLength is the longest code allowed, at least
+	 * BITS_PER_WORD + 1, or 0 for no limit
+	 */
+	public void setMaxCodeLength(int maxLength) {
+		if (maxLength != 0 && (maxLength <= BITS_PER_WORD || maxLength > HuffCodes.MAX_CODE_LENGTH)) {
+			throw new IllegalArgumentException("max code length must be 0 or in ["
+					+ (BITS_PER_WORD + 1) + ", " + HuffCodes.MAX_CODE_LENGTH + "]: " + maxLength);
+		}
+		myMaxCodeLength = maxLength;
+	}
+	
+	/**
+	 * Check, while compressing, that every block decodes back to its
+	 * input. compressBlocks and compressIndexed decode each encoded block
+	 * in memory and compare it with the input block, so no second pass
+	 * over the files is needed. Decoding runs on the encoding threads, or
+	 * on one background thread when setThreads is 1, overlapping with
+	 * reading and writing. A block that does not decode to its input
+	 * stops compression with a HuffException naming the block.
+	 * @param verify is true to check every block
+	 */
+	public void setVerify(boolean verify) {
+		myVerify = verify;
+	}
+	
+	/**
+	 * Store CRC32C checksums of the original bytes so that decompress
+	 * detects a corrupted file instead of writing wrong output. When set,
+	 * compress writes HUFF_CHECKED, with the checksum of the whole input
+	 * in the header, and the block formats set FLAG_CRC, with a checksum
+	 * at the start of every encoded block and one of the whole input
+	 * after the last block. Checksums are computed while counting or
+	 * encoding, and checked while decoding, with no extra pass; a block
+	 * that fails its check is named in the HuffException thrown.
+	 * @param checksum is true to store and check checksums
+	 */
+	public void setChecksum(boolean checksum) {
+		myChecksum = checksum;
+	}
+	
+	/**
+	 * Compress with a trained model instead of codes built for each input.
+	 * compress then makes a single pass (two with setChecksum), builds no
+	 * codes and writes HUFF_MODEL, with only the model's id as header.
+	 * The block formats are not affected. The model is also added, as by
+	 * addModel, so this processor can decompress what it compresses.
+	 * @param model is the model compressed with, or null to build codes
+	 * for each input again
+	 */
+	public void setModel(HuffModel model) {
+		if (model != null) {
+			addModel(model);
+		}
+		myModel = model;
+	}
+	
+	/**
+	 * Code each byte with a table chosen by the byte before it (order-1
+	 * context) instead of one table for the whole input. Text, where the
+	 * next letter depends strongly on the last one, compresses noticeably
+	 * better; the cost is up to ALPH_SIZE code-length headers, so small
+	 * inputs can come out larger. When set, compress writes HUFF_CONTEXT;
+	 * setChecksum and setMaxCodeLength apply, headers are always
+	 * canonical, and setModel takes precedence. The block formats are not
+	 * affected.
+	 * @param context is true to code with order-1 contexts
+	 */
+	public void setContext(boolean context) {
+		myContext = context;
+	}
+	
+	/**
+	 * Transform each block of the block formats before Huffman coding it
+	 * (compressBlocks, compressIndexed and compress to a channel), for
+	 * example with new HuffRunLength(), new HuffBlockSort(), new
+	 * HuffMoveToFront(), new HuffRunLength(), which suits images and logs
+	 * far better than bytes alone. Stages run in the order given and are
+	 * recorded in the block flags; decompress undoes them in reverse. Each
+	 * stage works on one block, so memory stays proportional to the block
+	 * size. Whole-file compress is not affected.
+	 * @param stages are the transforms, at most MAX_STAGES, none to code
+	 * blocks as they are
+	 */
+	public void setTransforms(HuffTransform... stages) {
+		if (stages.length > MAX_STAGES) {
+			throw new IllegalArgumentException("at most " + MAX_STAGES + " transforms: " + stages.length);
+		}
+		for (HuffTransform stage : stages) {
+			if (stage.id() < 1 || stage.id() >= (1 << STAGE_BITS)) {
+				throw new IllegalArgumentException("transform id must be in [1, " + ((1 << STAGE_BITS) - 1)
+						+ "]: " + stage.id());
+			}
+		}
+		myTransforms = stages.clone();
+	}
+	
+	/**
+	 * Split the codes of each block of the block formats round-robin into
+	 * several bitstreams that share the block's codes, so decoding one
+	 * block can work on all of them at once. Decoding a single stream is
+	 * one long chain, each code found only once the length of the code
+	 * before it is known; with 4 streams four chains run side by side on
+	 * one thread. 4 streams, which have a decoding loop of their own,
+	 * decode about twice as fast as 1. Each stream costs 32 bits of length
+	 * and up to 7 bits of padding per block. The count is recorded in the
+	 * block flags, so decompress needs no setting. Whole-file compress is
+	 * not affected, it writes as it goes and the streams of a block must
+	 * be complete before the first is written.
+	 * @param streams is the number of streams per block, in [1,
+	 * MAX_STREAMS], 1 for the plain format
+	 */
+	public void setStreams(int streams) {
+		if (streams < 1 || streams > MAX_STREAMS) {
+			throw new IllegalArgumentException("streams must be in [1, " + MAX_STREAMS + "]: " + streams);
+		}
+		myStreams = streams;
+	}
+	
+	/**
+	 * Code symbols of width bits instead of bytes, e.g., 16 for UTF-16
+	 * text or 16-bit samples, whose bytes alone say little about what
+	 * comes next. When width is not BITS_PER_WORD, compress writes
+	 * HUFF_WIDE: the symbols are counted in a HuffSymbolMap, so only the
+	 * symbols that occur cost memory or time, and codes are built for
+	 * those alone. The header stores each symbol that occurs as its gap
+	 * from the one before, so a few hundred symbols spread over 65,536
+	 * cost a few hundred short header entries, not 65,536 lengths. Input
+	 * that is not a whole number of symbols keeps its last bits in the
+	 * header. setChecksum and setMaxCodeLength apply, headers are always
+	 * canonical, setModel takes precedence and setContext is ignored. The
+	 * block formats are not affected.
+	 * @param width is the bits per symbol, in [1, MAX_SYMBOL_WIDTH],
+	 * BITS_PER_WORD to code bytes
+	 */
+	public void setSymbolWidth(int width) {
+		if (width < 1 || width > MAX_SYMBOL_WIDTH) {
+			throw new IllegalArgumentException("symbol width must be in [1, " + MAX_SYMBOL_WIDTH + "]: " + width);
+		}
+		myWidth = width;
+	}
+	
+	/**
+	 * Make a model available to decompress, which finds the model for
+	 * HUFF_MODEL data by its id. Models can be added while other threads
+	 * decompress; a model with the same id as an earlier one replaces it.
+	 * @param model is a model data may have been compressed with
+	 */
+	public void addModel(HuffModel model) {
+		myModels.put(model.id(), model);
+	}
+	
+	/**
+	 * Report what every compress and decompress call does to metrics:
+	 * the time spent counting, building codes, on the header, coding and
+	 * in I/O, the bytes in and out, header bits, symbols coded and the
+	 * longest code (see HuffStats). Calls made with no metrics read no
+	 * clocks. With DEBUG_HIGH the stats of every call are also printed.
+	 * @param metrics receives the stats of every call, e.g.,
+	 * HuffEvent.METRICS, a HuffMetricsBean or several of them joined with
+	 * HuffMetrics.of, or null for none
+	 */
+	public void setMetrics(HuffMetrics metrics) {
+		myMetrics = metrics;
+	}
+	
+	/**
+	 * Set the number of threads compressBlocks uses to encode blocks.
+	 * Blocks are still read and written in order, so the output is the
+	 * same for any number of threads.
+	 * @param threads is the number of encoding threads, 1 encodes on
+	 * the calling thread
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be positive: " + threads);
+		}
+		myThreads = threads;
+	}
 	/**
 	 * Compresses a file. Process must be reversible and loss-less.
 	 *
@@ -42,131 +344,1449 @@ public class HuffProcessor {
 	 *            Buffered bit stream writing to the output file.
 	 */
 	public void compress(BitInputStream in, BitOutputStream out){
-		int [] counts = readForCounts(in);//Determine the frequency of every 
+		HuffStats stats = startStats(true, in, out);
+		HuffChecksum checksum = new HuffChecksum();
+		if (myModel != null) {// no counting, the codes come from the model
+			if (myChecksum) {
+				HuffCounter.count(in, checksum);
+				in.reset();
+			}
+			lap(stats, HuffStats.Phase.COUNT);
+			writeFileHeader(myModel.codes(), checksum, out);
+			lap(stats, HuffStats.Phase.HEADER);
+			writeCompressedBits(myModel.codes(), in, out);
+			closeAndReport(stats, fileFormat(), myModel.codes(), out);
+			return;
+		}
+		if (myWidth != BITS_PER_WORD) {
+			compressWide(in, out, stats);
+			closeAndReport(stats, HUFF_WIDE, null, out);
+			return;
+		}
+		if (myContext) {
+			compressContexts(in, out, stats);
+			closeAndReport(stats, HUFF_CONTEXT, null, out);
+			return;
+		}
+		long [] counts = readForCounts(in, checksum);//Determine the frequency of every 
 		//eight-bit character/chunk in the file being compressed. I used "in" as a variable but it is the text or the file to be compressed
-		HuffNode root = makeTreeFromCounts(counts);//from the frequency of eight bit of characters in the "in"
-		//make a HuffMan tree
-		String[] codings = makeCodingsFromTree(root);//from the graph it created on the previous tree,
+		lap(stats, HuffStats.Phase.COUNT);
+		HuffCodes codings = makeCodesFromCounts(counts, myScratch.get());//from the frequency of eight bit of characters in the "in"
 		//create an encoding for each eigth-bit character chunk interms of 0 and one. Basiclly it codes the apth from the root to the leaf.
+		lap(stats, HuffStats.Phase.BUILD);
 		
-		out.writeBits(BITS_PER_INT, HUFF_TREE);// we write bits for the huff-tree and 
-		writeHeader(root, out);//Write the magic number and the tree to the beginning/header of the compressed file 
-		
+		writeFileHeader(codings, checksum, out);//Write the magic number and the tree (or code lengths) 
+		//to the beginning/header of the compressed file 
+		lap(stats, HuffStats.Phase.HEADER);
 		
 		in.reset();//This method repositions the “cursor” to the beginning of the input file.
 
 		writeCompressedBits(codings, in, out);//do the same by deleting 
 		//the eight characters that are visited
-		out.close();
+		closeAndReport(stats, fileFormat(), codings, out);
 
 	}
 	
-	private int[] readForCounts(BitInputStream in) {
-		int[] abc = new int[ALPH_SIZE + 1];//create an array of size 257. 256 for the bit and the extra one is for PSEUDO_EOF
-		
-		while(true) {
-		int bits = in.readBits(BITS_PER_WORD);//reads the first bit in the "in" and remove it	
-		if(bits==-1) break;//if the bits are done after it traverse through all the bits, it will get -1 and break the traversal
-		abc[bits] +=1;	//when we get the same characters repeated it increment the number stored in the array.
-		 
-		
+	/**
+	 * Return stats for a call that reads in and writes out, timing their
+	 * I/O, or null when there are no metrics, so an unmeasured call never
+	 * reads the clock. in and out are null when the call opens its
+	 * streams later, or uses none.
+	 */
+	private HuffStats startStats(boolean compress, BitInputStream in, BitOutputStream out) {
+		if (myMetrics == null && myDebugLevel < DEBUG_HIGH) {
+			return null;
 		}
-	abc[PSEUDO_EOF] = 1 ;//it gives one for PSEUDO_EOF
-	// TODO Auto-generated method stub
-	return abc;
-}
+		HuffStats stats = new HuffStats(compress);
+		if (myMetrics != null) {
+			myMetrics.begin(stats);
+		}
+		if (in != null) {
+			stats.attach(in, out);
+		}
+		return stats;
+	}
+	
+	private static void lap(HuffStats stats, HuffStats.Phase phase) {
+		if (stats != null) {
+			stats.lap(phase);
+		}
+	}
+	
+	private static void used(HuffStats stats, HuffCodes codings) {
+		if (stats != null && codings != null) {
+			stats.codes(codings);
+		}
+	}
 	
-	private HuffNode makeTreeFromCounts(int[] abc) {//the ideas is to create the huffman tree based on the
-		// number of frequncey of the characters
+	/**
+	 * End the coding phase, close out as IO and report the call
+	 * @param codings are the codes used, or null if used was called
+	 */
+	private void closeAndReport(HuffStats stats, int format, HuffCodes codings, BitOutputStream out) {
+		lap(stats, HuffStats.Phase.CODE);
+		out.close();
+		lap(stats, HuffStats.Phase.IO);
+		used(stats, codings);
+		report(stats, format);
+	}
+	
+	private void report(HuffStats stats, int format) {
+		if (stats == null) {
+			return;
+		}
+		stats.format(format);
+		stats.finish();
+		if (myMetrics != null) {
+			myMetrics.record(stats);
+		}
+		if (myDebugLevel >= DEBUG_HIGH) {
+			System.out.println(stats);
+		}
+	}
+	
+	/**
+	 * Compresses a file to the same format as compress, counting symbols
+	 * on setThreads threads over memory-mapped slices of inFile and then
+	 * reading the file a second time to encode it, so nothing is buffered.
+	 *
+	 * @param inFile is the file to be compressed
+	 * @param outFile is where the compressed file is written
+	 */
+	public void compress(File inFile, File outFile) {
+		if ((myContext || myWidth != BITS_PER_WORD) && myModel == null) {
+			try (BitInputStream in = new BitInputStream(inFile)) {
+				BitOutputStream out = new BitOutputStream(outFile);
+				try {
+					compress(in, out);
+				}
+				catch (RuntimeException e) {
+					closeAfterFailure(out, e);
+					throw e;
+				}
+			}
+			return;
+		}
+		HuffStats stats = startStats(true, null, null);
+		HuffChecksum checksum = new HuffChecksum();
+		HuffCodes codings;
+		if (myModel != null) {
+			if (myChecksum) {
+				HuffCounter.count(inFile, myThreads, checksum);
+			}
+			lap(stats, HuffStats.Phase.COUNT);
+			codings = myModel.codes();
+		}
+		else {
+			long[] counts = HuffCounter.count(inFile, myThreads, myChecksum ? checksum : null);
+			counts[PSEUDO_EOF] = 1;
+			lap(stats, HuffStats.Phase.COUNT);
+			codings = makeCodesFromCounts(counts, myScratch.get());
+			lap(stats, HuffStats.Phase.BUILD);
+		}
 		
-		PriorityQueue<HuffNode> pq = new PriorityQueue<>();//we use priority queue to priotitize 
-		//the adding part by the number stored in the array named abc
-		for(int k=0; k < abc.length; k++) {
-			if(abc[k] > 0) {//if the character in the "in" file exist, it has a frequency number greater than 0
-				 pq.add(new HuffNode(k,abc[k],null,null));//create a single node
-			}//by the end of this loop we will have node of the characters with their frequncies marked 
-			//in them and left and right node are null
-			
-		   
+		try (BitInputStream in = new BitInputStream(inFile)) {
+			BitOutputStream out = new BitOutputStream(outFile);
+			try {
+				if (stats != null) {
+					stats.attach(in, out);
+				}
+				writeFileHeader(codings, checksum, out);
+				lap(stats, HuffStats.Phase.HEADER);
+				writeCompressedBits(codings, in, out);
+				closeAndReport(stats, fileFormat(), codings, out);
+			}
+			catch (RuntimeException e) {
+				closeAfterFailure(out, e);
+				throw e;
+			}
 		}
-
-		while (pq.size() > 1) {// finally we will get the head of the hufman tree
-		    HuffNode left = pq.remove();// pick the first and assign it to be left
-		    HuffNode right = pq.remove();// pick the the first after one befrore it is removed  and assigne it as a right node
-		    HuffNode poop = new HuffNode(0,left.myWeight+right.myWeight,left,right); // creates a node which has 0 as a value, left.myWeight+right.myWeight as a //
-		    //wiegh and the left and the right node as a child
-		    // left.weight+right.weight and left, right subtrees
-		    pq.add(poop); // add the new node to the priorityque.
-		}
-		HuffNode head = pq.remove(); // in the end we have one tree. from that one tree we get the root.
-
-	// TODO Auto-generated method stub
-	return head;//it is the head of the huffman tree
-}
+	}
 	
-	private String[] makeCodingsFromTree(HuffNode head) {
-		 String[] encodings = new String[ALPH_SIZE + 1];//creates string array of size 257
-		 codingHelper(head,"",encodings);//
-
-		 
-	return encodings;//returns the String array which stores the path that defines in terms of 0 and one
-}
+	/**
+	 * Close a stream a call opened and failed with, so its file is not
+	 * left open, keeping the call's exception as the one thrown
+	 * @param out is the stream closed
+	 * @param failure has any exception from closing added as suppressed
+	 */
+	static void closeAfterFailure(BitOutputStream out, RuntimeException failure) {
+		try {
+			out.close();
+		}
+		catch (RuntimeException e) {
+			failure.addSuppressed(e);
+		}
+	}
+	
+	/**
+	 * Return the most bytes compress(ByteBuffer, ByteBuffer) can write for
+	 * length bytes of input, whatever the bytes and settings, except a
+	 * model (see HuffModel.maxCompressedLength), setContext and
+	 * setSymbolWidth, whose headers can be larger. Huffman codes never cost
+	 * more than a 9-bit code for each of the ALPH_SIZE + 1 symbols, so the
+	 * bound is 9 bits per byte plus PSEUDO_EOF plus the largest header.
+	 * @param length is the number of bytes compressed
+	 * @return size of a destination buffer that is always large enough
+	 */
+	public static long maxCompressedLength(long length) {
+		return MAX_HEADER_BYTES + ((BITS_PER_WORD + 1) * (length + 1) + BITS_PER_WORD - 1) / BITS_PER_WORD;
+	}
 	
-	private void codingHelper(HuffNode root, String path, String[] encodings) {
-		if (root.myRight == null && root.myLeft== null) {
-	        encodings[root.myValue] = path;
-	        return;
-	   }
-		if(root.myLeft != null) {
-			codingHelper(root.myLeft, path+"0",encodings );//defines the left traversal  for the eigth bit character
+	/**
+	 * Compresses the remaining bytes of src into dst, in the format of
+	 * compress. Bytes are read and written in place, so heap, direct and
+	 * mapped buffers work with no copying. The bit streams, counts, code
+	 * tables and checksum are kept for each calling thread and reset by
+	 * every call, so once a thread has made a call, calls with the same
+	 * src and dst allocate nothing (new buffers cost a view of each).
+	 * What still allocates: HuffStats with setMetrics, codes that
+	 * setMaxCodeLength has to shorten, and setContext and setSymbolWidth,
+	 * which build their tables for each call. src is read twice, once to
+	 * count and once to encode, or once with a model.
+	 *
+	 * @param src holds the bytes compressed, its position is moved to its limit
+	 * @param dst receives the compressed bytes at its position, which is
+	 * moved past them
+	 * @return number of bytes written to dst
+	 * @throws BufferOverflowException if dst has too little room, see
+	 * maxCompressedLength; src and dst positions are then unchanged
+	 */
+	public int compress(ByteBuffer src, ByteBuffer dst) {
+		int before = dst.position();
+		Scratch scratch = myScratch.get();
+		BitInputStream in = scratch.in;
+		BitOutputStream out = scratch.out;
+		in.wrap(src);
+		out.wrap(dst);
+		HuffStats stats = startStats(true, in, out);
+		if (myWidth != BITS_PER_WORD && myModel == null) {
+			compressWide(in, out, stats);
+			closeAndReport(stats, HUFF_WIDE, null, out);
+			src.position(src.limit());
+			return dst.position() - before;
+		}
+		if (myContext && myModel == null) {
+			compressContexts(in, out, stats);
+			closeAndReport(stats, HUFF_CONTEXT, null, out);
+			src.position(src.limit());
+			return dst.position() - before;
+		}
+		// src is counted and checksummed in place, then put back
+		int position = src.position();
+		HuffChecksum checksum = scratch.checksum;
+		checksum.clear();
+		if (myChecksum) {
+			scratch.crc.reset();
+			scratch.crc.update(src);
+			checksum.add((int) scratch.crc.getValue(), src.position() - position);
+			src.position(position);
 		}
-		if(root.myLeft != null) {
-			codingHelper(root.myRight,path+"1",encodings );	//	defines the right traversal  for the eigth bit character
+		HuffCodes codings;
+		if (myModel != null) {
+			lap(stats, HuffStats.Phase.COUNT);
+			codings = myModel.codes();
+		}
+		else {
+			long[] counts = scratch.counts;
+			Arrays.fill(counts, 0);
+			HuffCounter.count(src, counts);
+			src.position(position);
+			counts[PSEUDO_EOF] = 1;
+			lap(stats, HuffStats.Phase.COUNT);
+			codings = makeCodesFromCounts(counts, scratch);
+			lap(stats, HuffStats.Phase.BUILD);
 		}
 		
-
+		writeFileHeader(codings, checksum, out);
+		lap(stats, HuffStats.Phase.HEADER);
+		writeCompressedBits(codings, in, out);
+		closeAndReport(stats, fileFormat(), codings, out);
+		src.position(src.limit());
+		return dst.position() - before;
+	}
+	
+	/**
+	 * Decompresses the remaining bytes of src, one file in any format
+	 * decompress reads, into dst. Bytes are read and written in place,
+	 * through bit streams kept for each calling thread like those of
+	 * compress(ByteBuffer, ByteBuffer); the decoder for the codes in src
+	 * is built for each call.
+	 *
+	 * @param src holds a compressed file, its position is moved to its limit
+	 * @param dst receives the decompressed bytes at its position, which
+	 * is moved past them
+	 * @return number of bytes written to dst
+	 * @throws BufferOverflowException if dst has too little room; src and
+	 * dst positions are then unchanged
+	 */
+	public int decompress(ByteBuffer src, ByteBuffer dst) {
+		int before = dst.position();
+		Scratch scratch = myScratch.get();
+		scratch.in.wrap(src);
+		scratch.out.wrap(dst);
+		decompress(scratch.in, scratch.out);
+		src.position(src.limit());
+		return dst.position() - before;
+	}
+	
+	/**
+	 * Compresses everything read from in until it ends, writing to out,
+	 * in the format of compressBlocks so the input is read only once.
+	 * Both channels must be in blocking mode and are left open.
+	 *
+	 * @param in is the source of bytes compressed
+	 * @param out is where the compressed bytes are written
+	 */
+	public void compress(ReadableByteChannel in, WritableByteChannel out) {
+		compressBlocks(new BitInputStream(in), new BitOutputStream(out));
+	}
+	
+	/**
+	 * Decompresses one file in any format decompress reads from in,
+	 * writing to out. Both channels must be in blocking mode and are
+	 * left open.
+	 *
+	 * @param in is the source of compressed bytes
+	 * @param out is where the decompressed bytes are written
+	 */
+	public void decompress(ReadableByteChannel in, WritableByteChannel out) {
+		decompress(new BitInputStream(in), new BitOutputStream(out));
 	}
 	
+	private long[] readForCounts(BitInputStream in, HuffChecksum checksum) {
+		long[] abc = HuffCounter.count(in, myChecksum ? checksum : null);//array of size 257. 256 for the bit and the extra one is for PSEUDO_EOF
+		//counted a chunk of bytes at a time, longs so big files do not overflow
+		abc[PSEUDO_EOF] = 1 ;//it gives one for PSEUDO_EOF
+		return abc;
+	}
 	
-	private void writeHeader(HuffNode root, BitOutputStream out) {//writting the tree
-		// TODO Auto-generated method stub
+	private HuffCodes makeCodesFromCounts(long[] counts) {//the ideas is to create the huffman codes based on the
+		// number of frequncey of the characters. HuffLengths joins the two lightest
+		// subtrees just like a PriorityQueue<HuffNode> would, but over arrays of
+		// long weights, so only the length of each code is computed. These codes
+		// are kept beside others (contexts, wide symbols), so they are new ones
+		int[] lengths = counts.length == ALPH_SIZE + 1 ? myScratch.get().lengths : new int[counts.length];
+		lengths = myBuilders.get().compute(counts, lengths);
 		
-			if(root.myLeft != null || root.myRight != null) {//b
-				out.writeBits(1, 0);//write a single bit of zero. 1 determines the number of zero is one.
-				writeHeader(root.myLeft,out);//recursive call
-				writeHeader(root.myRight,out);//recursive call
-				
-			}
-			else {
-				out.writeBits(1, 1);//if root is leaf, put one 1.
-				out.writeBits(BITS_PER_WORD + 1, root.myValue);//then next to the 1, put the nine characters
-				//which defines the character stored in the in the root.myValue
+		if (myMaxCodeLength > 0) {
+			lengths = limitLengths(lengths, counts);
+		}
+		return new HuffCodes(lengths);//canonical codes with those lengths
+	}
+	
+	/**
+	 * Return the codes for counts, ALPH_SIZE + 1 of them, built into the
+	 * lengths and codes of scratch, so nothing is allocated unless the
+	 * codes have to be limited. The codes are good until scratch builds
+	 * codes again.
+	 */
+	private HuffCodes makeCodesFromCounts(long[] counts, Scratch scratch) {
+		int[] lengths = myBuilders.get().compute(counts, scratch.lengths);
+		if (myMaxCodeLength > 0) {
+			lengths = limitLengths(lengths, counts);
+		}
+		scratch.codes.assign(lengths);
+		return scratch.codes;
+	}
+	
+	/**
+	 * Return lengths if no code is longer than myMaxCodeLength, otherwise
+	 * the best code lengths that are within that length.
+	 */
+	private int[] limitLengths(int[] lengths, long[] counts) {
+		int max = 0;
+		for (int length : lengths) {
+			max = Math.max(max, length);
+		}
+		if (max <= myMaxCodeLength) {
+			return lengths;
+		}
+		int[] limited = HuffLengths.limited(counts, myMaxCodeLength);
+		if (myDebugLevel >= DEBUG_LOW) {
+			long optimal = HuffLengths.cost(counts, lengths);
+			long cost = HuffLengths.cost(counts, limited);
+			System.out.printf("codes limited from %d to %d bits, %d bits instead of %d (+%.4f%%)\n",
+					max, myMaxCodeLength, cost, optimal, 100.0 * (cost - optimal) / optimal);
+		}
+		return limited;
+	}
+	
+	/**
+	 * Write the magic number and header of a whole-file compress. With
+	 * myChecksum set that is HUFF_CHECKED, the flags as in HUFF_BLOCKS and
+	 * the CRC32C of the input before the codes header; the checksum has
+	 * to come first, since the decoder reads ahead past PSEUDO_EOF.
+	 * With myModel set it is HUFF_MODEL, then the flags (only FLAG_CRC)
+	 * in the top 8 bits and the model id in the low 24 bits of one word,
+	 * then the checksum if there is one, and no codes header.
+	 */
+	private void writeFileHeader(HuffCodes codings, HuffChecksum checksum, BitOutputStream out) {
+		out.writeBits(BITS_PER_INT, fileFormat());
+		if (myModel != null) {
+			int flags = myChecksum ? FLAG_CRC : 0;
+			out.writeBits(BITS_PER_INT, (flags << 24) | myModel.id());
+			if (myChecksum) {
+				out.writeBits(BITS_PER_INT, checksum.value());
 			}
+			return;
+		}
+		if (myChecksum) {
+			// whole files are never transformed or interleaved
+			out.writeBits(BITS_PER_INT, blockFlags() & (FLAG_CANONICAL | FLAG_CRC));
+			out.writeBits(BITS_PER_INT, checksum.value());
+		}
+		writeCodesHeader(codings, out);
 	}
 	
+	/**
+	 * Return the magic number writeFileHeader starts with
+	 */
+	private int fileFormat() {
+		if (myModel != null) {
+			return HUFF_MODEL;
+		}
+		if (myChecksum) {
+			return HUFF_CHECKED;
+		}
+		return myCanonical ? HUFF_CANON : HUFF_TREE;
+	}
+	
+	/**
+	 * Write the header for codings: the tree whose paths are the codes,
+	 * or just the code lengths when myCanonical is set.
+	 */
+	private void writeCodesHeader(HuffCodes codings, BitOutputStream out) {
+		if (myCanonical) {
+			codings.writeLengths(out);
+		}
+		else {
+			codings.writeTree(BITS_PER_WORD + 1, out);
+		}
+	}
+	
+	private HuffDecoder readCodesHeader(BitInputStream in, boolean canonical) {
+		return new HuffDecoder(readCodes(in, canonical));
+	}
+	
+	private HuffCodes readCodes(BitInputStream in, boolean canonical) {
+		if (canonical) {
+			return new HuffCodes(HuffCodes.readLengths(in));
+		}
+		return new HuffCodes(readTreeHeader(in));
+	}
 	
 	
 	
 	
 	
-	private void writeCompressedBits(String[] codings, BitInputStream in, BitOutputStream out) {
+	
+	private void writeCompressedBits(HuffCodes codings, BitInputStream in, BitOutputStream out) {
 	
 		while (true) {
 			int bits = in.readBits(BITS_PER_WORD);//gets the first 8 bits
 			if (bits == -1) 
 				break;
-			String code = codings[bits];//we determine the path of the bits we get the above line
-			out.writeBits(code.length(), Integer.parseInt(code,2));//changes the code in the string form to the sequence of strings
+			codings.write(bits, out);//writes the path of the bits we get the above line
 		}
 		
-		String code = codings[PSEUDO_EOF];
-		out.writeBits(code.length(), Integer.parseInt(code,2));// changes the code in the string form to the sequence of strings;
+		codings.write(PSEUDO_EOF, out);
+}	
+	/**
+	 * Compresses in one pass with codes that adapt as the input is read,
+	 * the format of HuffAdaptiveOutputStream. Nothing is counted first and
+	 * in is read once, so in can be a pipe or socket; compression is a
+	 * little worse than compress for data whose statistics do not change.
+	 *
+	 * @param in
+	 *            Buffered bit stream of the file to be compressed.
+	 * @param out
+	 *            Buffered bit stream writing to the output file.
+	 */
+	public void compressAdaptive(BitInputStream in, BitOutputStream out) {
+		HuffStats stats = startStats(true, in, out);
+		HuffAdaptiveOutputStream adaptive = new HuffAdaptiveOutputStream(out, HuffAdaptiveModel.DEFAULT_WINDOW);
+		byte[] chunk = new byte[HuffCounter.CHUNK_SIZE];
+		int length;
+		while ((length = in.readBytes(chunk, 0, chunk.length)) > 0) {
+			adaptive.write(chunk, 0, length);
+		}
+		lap(stats, HuffStats.Phase.CODE);
+		adaptive.close();
+		lap(stats, HuffStats.Phase.IO);
+		report(stats, HUFF_ADAPTIVE);
+	}
+	
+	/**
+	 * Write the HUFF_CONTEXT format: HUFF_CONTEXT, flags (FLAG_CRC or 0),
+	 * the CRC32C of the input if FLAG_CRC is set, a bit saying whether
+	 * there is a shared table and its code lengths if so, then for each
+	 * of the ALPH_SIZE contexts a bit saying whether it has a table of its
+	 * own and its code lengths if so. Contexts without a table use the
+	 * shared one. The codes follow, each from the table of the byte
+	 * before it, the first from the table of byte 0. in is read twice.
+	 */
+	private void compressContexts(BitInputStream in, BitOutputStream out, HuffStats stats) {
+		HuffChecksum checksum = new HuffChecksum();
+		long[][] counts = HuffCounter.countContexts(in, myChecksum ? checksum : null);
+		lap(stats, HuffStats.Phase.COUNT);
+		HuffCodes[] codings = chooseContextCodes(counts);
+		HuffCodes shared = codings[ALPH_SIZE];
+		lap(stats, HuffStats.Phase.BUILD);
 		
+		out.writeBits(BITS_PER_INT, HUFF_CONTEXT);
+		out.writeBits(BITS_PER_INT, myChecksum ? FLAG_CRC : 0);
+		if (myChecksum) {
+			out.writeBits(BITS_PER_INT, checksum.value());
+		}
+		out.writeBits(1, shared == null ? 0 : 1);
+		if (shared != null) {
+			shared.writeLengths(out);
+		}
+		for (int context = 0; context < ALPH_SIZE; context++) {
+			// bytes that nothing follows need no table
+			boolean own = codings[context] != null && codings[context] != shared;
+			out.writeBits(1, own ? 1 : 0);
+			if (own) {
+				codings[context].writeLengths(out);
+			}
+		}
+		lap(stats, HuffStats.Phase.HEADER);
+		for (HuffCodes codes : codings) {
+			used(stats, codes);
+		}
 		
+		in.reset();
+		int previous = 0;
+		while (true) {
+			int bits = in.readBits(BITS_PER_WORD);
+			if (bits == -1) 
+				break;
+			codings[previous].write(bits, out);
+			previous = bits;
+		}
+		codings[previous].write(PSEUDO_EOF, out);
+	}
+	
+	/**
+	 * Return the codes for each context, with the shared codes (or null)
+	 * at index ALPH_SIZE. A context gets codes of its own only when they
+	 * save more bits than their header costs, compared with codes shared
+	 * by all the other contexts, so rare contexts and data with no order-1
+	 * structure cost little more than order-0 coding.
+	 */
+	private HuffCodes[] chooseContextCodes(long[][] counts) {
+		HuffCodes[] own = new HuffCodes[ALPH_SIZE];
+		long[] ownBits = new long[ALPH_SIZE];
+		for (int context = 0; context < ALPH_SIZE; context++) {
+			for (long count : counts[context]) {
+				if (count > 0) {
+					own[context] = makeCodesFromCounts(counts[context]);
+					ownBits[context] = HuffLengths.cost(counts[context], own[context].lengths())
+							+ own[context].lengthsBits();
+					break;
+				}
+			}
+		}
 		
-	// TODO Auto-generated method stub
+		// the shared codes change with the contexts that use them, so
+		// decide again against the new shared codes a few times
+		boolean[] sharing = new boolean[ALPH_SIZE];
+		Arrays.fill(sharing, true);
+		HuffCodes shared = null;
+		for (int pass = 0; pass < CONTEXT_PASSES; pass++) {
+			long[] sum = new long[ALPH_SIZE + 1];
+			boolean any = false;
+			for (int context = 0; context < ALPH_SIZE; context++) {
+				if (sharing[context] && own[context] != null) {
+					for (int s = 0; s <= ALPH_SIZE; s++) {
+						sum[s] += counts[context][s];
+					}
+					any = true;
+				}
+			}
+			shared = any ? makeCodesFromCounts(sum) : null;
+			for (int context = 0; context < ALPH_SIZE; context++) {
+				sharing[context] = shared != null && own[context] != null
+						&& covers(shared, counts[context])
+						&& HuffLengths.cost(counts[context], shared.lengths()) + shared.lengthsBits() / ALPH_SIZE
+								<= ownBits[context];
+			}
+		}
+		
+		HuffCodes[] codings = new HuffCodes[ALPH_SIZE + 1];
+		for (int context = 0; context < ALPH_SIZE; context++) {
+			codings[context] = sharing[context] ? shared : own[context];
+		}
+		codings[ALPH_SIZE] = shared;
+		return codings;
+	}
+	
+	private static boolean covers(HuffCodes codings, long[] counts) {
+		for (int s = 0; s < counts.length; s++) {
+			if (counts[s] > 0 && codings.length(s) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Write the HUFF_WIDE format: HUFF_WIDE, flags (FLAG_CRC or 0), the
+	 * CRC32C of the input if FLAG_CRC is set, a word holding the symbol
+	 * width in its top 16 bits and the number of bits after the last
+	 * whole symbol in its low 16 bits, those bits, then the code lengths
+	 * as writeWideLengths writes them. The codes follow, with symbol k of
+	 * the header coded as k, ending with the code for the number of
+	 * symbols, which stands for PSEUDO_EOF. in is read twice.
+	 */
+	private void compressWide(BitInputStream in, BitOutputStream out, HuffStats stats) {
+		HuffChecksum checksum = new HuffChecksum();
+		HuffSymbolMap counts = new HuffSymbolMap();
+		long tail = HuffCounter.countWide(in, myWidth, counts, myChecksum ? checksum : null);
+		lap(stats, HuffStats.Phase.COUNT);
+		// codes are built over the symbols that occur alone, and the map
+		// is reused to find the position of each symbol among them
+		int[] symbols = counts.keys();
+		long[] compact = new long[symbols.length + 1];
+		for (int k = 0; k < symbols.length; k++) {
+			compact[k] = counts.get(symbols[k]);
+			counts.put(symbols[k], k);
+		}
+		compact[symbols.length] = 1;
+		HuffCodes codings = makeCodesFromCounts(compact);
+		lap(stats, HuffStats.Phase.BUILD);
+
+		int tailBits = (int) tail & 0x1f;
+		out.writeBits(BITS_PER_INT, HUFF_WIDE);
+		out.writeBits(BITS_PER_INT, myChecksum ? FLAG_CRC : 0);
+		if (myChecksum) {
+			out.writeBits(BITS_PER_INT, checksum.value());
+		}
+		out.writeBits(BITS_PER_INT, (myWidth << 16) | tailBits);
+		if (tailBits > 0) {
+			out.writeBits(tailBits, (int) (tail >>> 5));
+		}
+		writeWideLengths(codings, symbols, out);
+		lap(stats, HuffStats.Phase.HEADER);
+		used(stats, codings);
+
+		in.reset();
+		while (true) {
+			int bits = in.readBits(myWidth);
+			if (bits == -1)
+				break;
+			codings.write((int) counts.get(bits), out);
+		}
+		codings.write(symbols.length, out);
+	}
+
+	/**
+	 * Write the code lengths of a sparse alphabet: the number of symbols
+	 * that occur (myWidth + 1 bits), the width of each length less 1
+	 * (HuffCodes.WIDTH_BITS), the length of the PSEUDO_EOF code, then for
+	 * each symbol in increasing order its gap from the one before as an
+	 * Elias gamma code and the length of its code. Symbols bunched
+	 * together, like the letters of one script in UTF-16, cost a few bits
+	 * each whatever the width.
+	 */
+	private void writeWideLengths(HuffCodes codings, int[] symbols, BitOutputStream out) {
+		int width = HuffCodes.widthOf(codings.maxLength());
+		out.writeBits(myWidth + 1, symbols.length);
+		out.writeBits(HuffCodes.WIDTH_BITS, width - 1);
+		out.writeBits(width, codings.length(symbols.length));
+		int previous = -1;
+		for (int k = 0; k < symbols.length; k++) {
+			HuffCodes.writeGamma(symbols[k] - previous, out);
+			out.writeBits(width, codings.length(k));
+			previous = symbols[k];
+		}
+	}
+	
+	/**
+	 * Compresses a file in a single pass, one block of at most
+	 * setBlockSize bytes at a time, each block with its own tree.
+	 * Unlike compress this never calls in.reset(), so in can be a
+	 * pipe such as System.in and memory use does not grow with the
+	 * size of the input.
+	 * <P>
+	 * Format: HUFF_BLOCKS, 32 bits of flags (FLAG_CANONICAL, FLAG_CRC or 0), then for
+	 * each block its original size and its encoded size in bytes (32
+	 * bits each) followed by the encoded bytes, which are a tree header (or code lengths),
+	 * the compressed bits and PSEUDO_EOF padded to a byte boundary.
+	 * A block size of 0 ends the file. With FLAG_CRC the encoded bytes
+	 * start with the CRC32C of the block's original bytes, and the CRC32C
+	 * of all the original bytes follows the 0 that ends the file. With
+	 * transforms (setTransforms) the flags hold their ids from bit
+	 * STAGE_SHIFT up, and the encoded bytes have the length of the
+	 * transformed block (32 bits) before the header; the codes are those
+	 * of the transformed block. With more than one stream (setStreams) the
+	 * flags hold the count less 1 from bit STREAMS_SHIFT up, and the
+	 * header is followed by the streams as written by writeStreams, with
+	 * no PSEUDO_EOF.
+	 *
+	 * @param in
+	 *            Buffered bit stream of the file to be compressed.
+	 * @param out
+	 *            Buffered bit stream writing to the output file.
+	 */
+	public void compressBlocks(BitInputStream in, BitOutputStream out) {
+		HuffStats stats = startStats(true, in, out);
+		out.writeBits(BITS_PER_INT, HUFF_BLOCKS);
+		out.writeBits(BITS_PER_INT, blockFlags());
+		
+		HuffChecksum checksum = new HuffChecksum();
+		if (myThreads > 1) {
+			encodeBlocksParallel(in, out, checksum);
+		}
+		else if (myVerify) {
+			encodeBlocksVerified(in, out, checksum);
+		}
+		else {
+			byte[] block = new byte[myBlockSize];
+			while (true) {
+				int size = readBlock(in, block);
+				if (size == 0) 
+					break;
+				writeBlock(size, encodeBlock(block, size), out, checksum);
+			}
+		}
+		out.writeBits(BITS_PER_INT, 0);
+		if (myChecksum) {
+			out.writeBits(BITS_PER_INT, checksum.value());
+		}
+		closeAndReport(stats, HUFF_BLOCKS, null, out);
+	}
+	
+	/**
+	 * Encode blocks on myThreads worker threads while this thread reads
+	 * input and writes finished blocks in order. At most two blocks per
+	 * thread are in flight so memory stays bounded.
+	 */
+	private void encodeBlocksParallel(BitInputStream in, BitOutputStream out, HuffChecksum checksum) {
+		ExecutorService pool = Executors.newFixedThreadPool(myThreads);
+		ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+		ArrayDeque<Integer> sizes = new ArrayDeque<>();
+		try {
+			for (long number = 0; ; number++) {
+				byte[] block = new byte[myBlockSize];
+				int size = readBlock(in, block);
+				if (size == 0)
+					break;
+				long blockNumber = number;
+				pending.add(pool.submit(() -> encodeBlock(block, size, blockNumber)));
+				sizes.add(size);
+				if (pending.size() >= 2 * myThreads) {
+					writeBlock(sizes.remove(), await(pending.remove()), out, checksum);
+				}
+			}
+			while (!pending.isEmpty()) {
+				writeBlock(sizes.remove(), await(pending.remove()), out, checksum);
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Encode blocks on this thread while one background thread decodes
+	 * each encoded block and compares it with a copy of its input. At
+	 * most two blocks are waiting to be checked.
+	 */
+	private void encodeBlocksVerified(BitInputStream in, BitOutputStream out, HuffChecksum checksum) {
+		ExecutorService checker = Executors.newSingleThreadExecutor();
+		ArrayDeque<Future<Object>> pending = new ArrayDeque<>();
+		byte[] block = new byte[myBlockSize];
+		try {
+			for (long number = 0; ; number++) {
+				int size = readBlock(in, block);
+				if (size == 0)
+					break;
+				byte[] encoded = encodeBlock(block, size);
+				byte[] copy = Arrays.copyOf(block, size);
+				long blockNumber = number;
+				pending.add(checker.submit(() -> {
+					verifyBlock(copy, size, encoded, blockNumber);
+					return null;
+				}));
+				writeBlock(size, encoded, out, checksum);
+				if (pending.size() >= 2) {
+					await(pending.remove());
+				}
+			}
+			while (!pending.isEmpty()) {
+				await(pending.remove());
+			}
+		}
+		finally {
+			checker.shutdownNow();
+		}
+	}
+	
+	private static <T> T await(Future<T> future) {
+		try {
+			return future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HuffException("interrupted waiting for block");
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Write a block record, adding the block's checksum to checksum when
+	 * blocks carry one
+	 */
+	private void writeBlock(int size, byte[] encoded, BitOutputStream out, HuffChecksum checksum) {
+		if (myChecksum) {
+			checksum.add(blockChecksum(encoded), size);
+		}
+		out.writeBits(BITS_PER_INT, size);
+		out.writeBits(BITS_PER_INT, encoded.length);
+		out.writeBytes(encoded, 0, encoded.length);
+	}
+	
+	private int readBlock(BitInputStream in, byte[] block) {
+		return Math.max(0, in.readBytes(block, 0, block.length));
+	}
+	
+	/**
+	 * Encode a block and, when myVerify is set, check that it decodes
+	 * back to block
+	 */
+	private byte[] encodeBlock(byte[] block, int size, long number) {
+		byte[] encoded = encodeBlock(block, size);
+		if (myVerify) {
+			verifyBlock(block, size, encoded, number);
+		}
+		return encoded;
+	}
+	
+	private byte[] encodeBlock(byte[] block, int size) {
+		byte[] data = block;
+		int length = size;
+		for (HuffTransform stage : myTransforms) {
+			byte[] transformed = new byte[stage.maxLength(length)];
+			length = stage.forward(data, length, transformed);
+			data = transformed;
+		}
+		Scratch scratch = myScratch.get();
+		long[] counts = scratch.counts;
+		Arrays.fill(counts, 0);
+		HuffCounter.count(data, 0, length, counts);
+		counts[PSEUDO_EOF] = 1;
+		HuffCodes codings = makeCodesFromCounts(counts, scratch);
+		
+		// room for 9-bit codes and a header, which covers every code built
+		// here; a block that does not fit anyway is encoded again
+		int room = length + length / 8 + 4096;
+		if (scratch.encoded.capacity() < room) {
+			scratch.encoded = ByteBuffer.allocate(room);
+		}
+		while (true) {
+			ByteBuffer encoded = scratch.encoded;
+			encoded.clear();
+			BitOutputStream out = scratch.blockOut;
+			out.wrap(encoded);
+			try {
+				if (myChecksum) {
+					out.writeBits(BITS_PER_INT, HuffChecksum.of(block, 0, size));
+				}
+				if (myTransforms.length > 0) {
+					out.writeBits(BITS_PER_INT, length);
+				}
+				writeCodesHeader(codings, out);
+				if (myStreams > 1) {
+					writeStreams(codings, data, length, out);
+				}
+				else {
+					for (int k = 0; k < length; k++) {
+						codings.write(data[k] & 0xff, out);
+					}
+					codings.write(PSEUDO_EOF, out);
+				}
+				out.close();
+			}
+			catch (BufferOverflowException e) {
+				scratch.encoded = ByteBuffer.allocate(2 * encoded.capacity());
+				continue;
+			}
+			return Arrays.copyOf(encoded.array(), encoded.position());
+		}
+	}
+	
+	/**
+	 * Write the codes of data[0, length) to myStreams streams, symbol k to
+	 * stream k % myStreams, then the byte length of every stream but the
+	 * last (32 bits each) and, from the next byte boundary, the streams,
+	 * each padded to a byte. The decoder knows the number of symbols, so
+	 * no stream ends with PSEUDO_EOF.
+	 */
+	private void writeStreams(HuffCodes codings, byte[] data, int length, BitOutputStream out) {
+		ByteArrayOutputStream[] bytes = new ByteArrayOutputStream[myStreams];
+		BitOutputStream[] streams = new BitOutputStream[myStreams];
+		for (int k = 0; k < myStreams; k++) {
+			bytes[k] = new ByteArrayOutputStream(length / myStreams / 2 + 16);
+			streams[k] = new BitOutputStream(bytes[k]);
+		}
+		int stream = 0;
+		for (int k = 0; k < length; k++) {
+			codings.write(data[k] & 0xff, streams[stream]);
+			if (++stream == myStreams) {
+				stream = 0;
+			}
+		}
+		for (int k = 0; k < myStreams; k++) {
+			streams[k].close();
+			if (k < myStreams - 1) {
+				out.writeBits(BITS_PER_INT, bytes[k].size());
+			}
+		}
+		out.flush();
+		for (ByteArrayOutputStream buffer : bytes) {
+			byte[] written = buffer.toByteArray();
+			out.writeBytes(written, 0, written.length);
+		}
+	}
+	
+	/**
+	 * Decode encoded and compare it with the block it was encoded from
+	 * @throws HuffException naming the block and the first byte that
+	 * differs if the block does not decode to its input
+	 */
+	private void verifyBlock(byte[] block, int size, byte[] encoded, long number) {
+		long start = number * myBlockSize;
+		byte[] decoded;
+		try {
+			decoded = decodeBlock(encoded, size, blockFlags());
+		}
+		catch (RuntimeException e) {
+			throw new HuffException("block " + number + " at byte " + start + " failed verification: "
+					+ e.getMessage());
+		}
+		int at = Arrays.mismatch(block, 0, size, decoded, 0, decoded.length);
+		if (at >= 0) {
+			throw new HuffException("block " + number + " at byte " + start + " failed verification: "
+					+ "decoded byte " + (start + at) + " differs from the input");
+		}
+	}
+	
+	private void readBlocks(BitInputStream in, BitOutputStream out) {
+		int flags = checkBlockFlags(in.readBits(BITS_PER_INT));
+		readBlockRecords(in, out, flags);
+	}
+	
+	private void readIndexedBlocks(BitInputStream in, BitOutputStream out) {
+		int flags = checkBlockFlags(in.readBits(BITS_PER_INT));
+		int count = in.readBits(BITS_PER_INT);
+		if (count < 0) {
+			throw new HuffException("bad block count " + count);
+		}
+		// the index is only needed for random access, records follow in order
+		long words = (long) count * INDEX_ENTRY_BYTES * BITS_PER_WORD / BITS_PER_INT;
+		for (long k = 0; k < words; k++) {
+			if (in.readBits(BITS_PER_INT) == -1) {
+				throw new HuffException("bad input, index truncated");
+			}
+		}
+		readBlockRecords(in, out, flags);
+	}
+	
+	private int blockFlags() {
+		int flags = (myCanonical ? FLAG_CANONICAL : 0) | (myChecksum ? FLAG_CRC : 0)
+				| (myStreams - 1) << STREAMS_SHIFT;
+		for (int k = 0; k < myTransforms.length; k++) {
+			flags |= myTransforms[k].id() << (STAGE_SHIFT + k * STAGE_BITS);
+		}
+		return flags;
+	}
+	
+	private int checkBlockFlags(int flags) {
+		int known = FLAG_CANONICAL | FLAG_CRC | (MAX_STREAMS - 1) << STREAMS_SHIFT;
+		if ((flags & ((1 << STAGE_SHIFT) - 1) & ~known) != 0) {
+			throw new HuffException("unsupported block flags " + flags);
+		}
+		transformsOf(flags);
+		return flags;
+	}
+	
+	private static int streamsOf(int flags) {
+		return (flags >>> STREAMS_SHIFT & (MAX_STREAMS - 1)) + 1;
+	}
+	
+	/**
+	 * Return the transforms recorded in block flags, in the order applied
+	 * @throws HuffException if an id is unknown
+	 */
+	private static HuffTransform[] transformsOf(int flags) {
+		int stages = flags >>> STAGE_SHIFT;
+		List<HuffTransform> list = new ArrayList<>();
+		for (; stages != 0; stages >>>= STAGE_BITS) {
+			list.add(HuffTransform.forId(stages & ((1 << STAGE_BITS) - 1)));
+		}
+		return list.toArray(new HuffTransform[0]);
+	}
+	
+	private void readBlockRecords(BitInputStream in, BitOutputStream out, int flags) {
+		HuffChecksum checksum = new HuffChecksum();
+		long start = 0;
+		for (long number = 0; ; number++) {
+			int size = in.readBits(BITS_PER_INT);
+			if (size == 0)
+				break;
+			int length = in.readBits(BITS_PER_INT);
+			if (size < 0 || length < 0) {
+				throw new HuffException("bad block header");
+			}
+			byte[] encoded = new byte[length];
+			if (length > 0 && in.readBytes(encoded, 0, length) != length) {
+				throw new HuffException("bad input, block truncated");
+			}
+			try {
+				decodeBlock(encoded, size, out, flags);
+			}
+			catch (HuffException e) {
+				throw new HuffException("block " + number + " at byte " + start + ": " + e.getMessage());
+			}
+			if ((flags & FLAG_CRC) != 0) {
+				checksum.add(blockChecksum(encoded), size);
+			}
+			start += size;
+		}
+		if ((flags & FLAG_CRC) != 0) {
+			checkFileChecksum(in.readBits(BITS_PER_INT), checksum);
+		}
+	}
+	
+	/**
+	 * Decode a block to out, checking its checksum when flags has FLAG_CRC
+	 * @throws HuffException if the block is corrupt
+	 */
+	private void decodeBlock(byte[] encoded, int size, BitOutputStream out, int flags) {
+		long before = out.bitsWritten();
+		BitInputStream blockIn = new BitInputStream(new ByteArrayInputStream(encoded), false);
+		CRC32C crc = null;
+		int expected = 0;
+		if ((flags & FLAG_CRC) != 0) {
+			expected = blockIn.readBits(BITS_PER_INT);
+			crc = new CRC32C();
+		}
+		HuffTransform[] stages = transformsOf(flags);
+		if (stages.length > 0 || streamsOf(flags) > 1) {
+			byte[] block = stages.length > 0 ? untransform(stages, blockIn, encoded, size, flags)
+					: readStreams(blockIn, encoded, size, flags);
+			if (crc != null) {
+				crc.update(block, 0, size);
+			}
+			out.writeBytes(block, 0, size);
+		}
+		else {
+			HuffDecoder decoder = readCodesHeader(blockIn, (flags & FLAG_CANONICAL) != 0);
+			decoder.decode(blockIn, out, crc);
+		}
+		if (out.bitsWritten() - before != (long) size * BITS_PER_WORD) {
+			throw new HuffException("block decoded to wrong size, expected " + size);
+		}
+		if (crc != null && (int) crc.getValue() != expected) {
+			throw new HuffException("block checksum does not match, block is corrupt");
+		}
+	}
+	
+	/**
+	 * Decode the transformed block that follows in blockIn and undo the
+	 * stages, last first, into a block of size bytes
+	 * @throws HuffException if a length does not fit the block
+	 */
+	private byte[] untransform(HuffTransform[] stages, BitInputStream blockIn, byte[] encoded, int size, int flags) {
+		// the most bytes each stage can have been given, for its output
+		int[] bounds = new int[stages.length + 1];
+		bounds[0] = size;
+		for (int k = 0; k < stages.length; k++) {
+			bounds[k + 1] = stages[k].maxLength(bounds[k]);
+		}
+		int length = blockIn.readBits(BITS_PER_INT);
+		if (length < 0 || length > bounds[stages.length]) {
+			throw new HuffException("bad transformed block length " + length);
+		}
+		byte[] data;
+		if (streamsOf(flags) > 1) {
+			data = readStreams(blockIn, encoded, length, flags);
+		}
+		else {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(length);
+			BitOutputStream transformed = new BitOutputStream(bytes);
+			readCodesHeader(blockIn, (flags & FLAG_CANONICAL) != 0).decode(blockIn, transformed);
+			transformed.close();
+			data = bytes.toByteArray();
+			if (data.length != length) {
+				throw new HuffException("transformed block decoded to wrong size, expected " + length);
+			}
+		}
+		for (int k = stages.length - 1; k >= 0; k--) {
+			byte[] original = new byte[bounds[k]];
+			length = stages[k].inverse(data, length, original);
+			data = original;
+		}
+		if (length != size) {
+			throw new HuffException("block decoded to wrong size, expected " + size);
+		}
+		return data;
+	}
+	
+	/**
+	 * Read the codes header and stream lengths that follow in blockIn and
+	 * decode the interleaved streams after them, see writeStreams
+	 * @param encoded is the block blockIn reads
+	 * @param length is the number of symbols in the streams
+	 * @throws HuffException if the stream lengths do not fit the block
+	 */
+	private byte[] readStreams(BitInputStream blockIn, byte[] encoded, int length, int flags) {
+		int streams = streamsOf(flags);
+		HuffDecoder decoder = readCodesHeader(blockIn, (flags & FLAG_CANONICAL) != 0);
+		long[] sizes = new long[streams - 1];
+		for (int k = 0; k < sizes.length; k++) {
+			sizes[k] = blockIn.readBits(BITS_PER_INT);
+			if (sizes[k] < 0) {
+				throw new HuffException("bad input, stream lengths truncated");
+			}
+		}
+		// the streams start at the next byte
+		long position = (blockIn.bitsUsed() + BITS_PER_WORD - 1) / BITS_PER_WORD;
+		int[] bounds = new int[streams + 1];
+		for (int k = 0; k < streams; k++) {
+			if (position > encoded.length) {
+				throw new HuffException("bad stream length, streams overrun the block");
+			}
+			bounds[k] = (int) position;
+			position += k < sizes.length ? sizes[k] : 0;
+		}
+		bounds[streams] = encoded.length;
+		byte[] data = new byte[length];
+		decoder.decode(encoded, bounds, data, length);
+		return data;
+	}
+	
+	/**
+	 * Return the checksum stored at the start of a block encoded with FLAG_CRC
+	 */
+	private static int blockChecksum(byte[] encoded) {
+		return ByteBuffer.wrap(encoded).getInt();
+	}
+	
+	private static void checkFileChecksum(int expected, HuffChecksum checksum) {
+		if (expected != checksum.value()) {
+			throw new HuffException("file checksum does not match, " + checksum.length()
+					+ " bytes decoded but blocks are missing, reordered or the trailer is corrupt");
+		}
+	}
+	
+	private byte[] decodeBlock(byte[] encoded, int size, int flags) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+		BitOutputStream out = new BitOutputStream(bytes);
+		decodeBlock(encoded, size, out, flags);
+		out.close();
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Compresses a file into blocks like compressBlocks, but with an
+	 * index in the header giving the bit offset and original size of
+	 * every block, so decompressParallel can decode blocks on separate
+	 * threads and decompressRange can decode only the blocks it needs.
+	 * Blocks are read and encoded on setThreads threads.
+	 * <P>
+	 * Format: HUFF_INDEXED, 32 bits of flags as in HUFF_BLOCKS, the number
+	 * of blocks, then per block the 64-bit offset of its record and its
+	 * original size, then block records and the end of the file exactly
+	 * as in HUFF_BLOCKS.
+	 *
+	 * @param inFile is the file to be compressed
+	 * @param outFile is where the compressed file is written
+	 */
+	public void compressIndexed(File inFile, File outFile) {
+		HuffStats stats = startStats(true, null, null);
+		try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+			 FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE,
+					 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long length = in.size();
+			long count = (length + myBlockSize - 1) / myBlockSize;
+			if (count * INDEX_ENTRY_BYTES > Integer.MAX_VALUE - INDEXED_HEADER_BYTES) {
+				throw new HuffException("too many blocks, use a larger block size");
+			}
+			ByteBuffer header = ByteBuffer.allocate(INDEXED_HEADER_BYTES + (int) count * INDEX_ENTRY_BYTES);
+			header.putInt(HUFF_INDEXED).putInt(blockFlags()).putInt((int) count);
+			
+			long position = header.capacity();
+			HuffChecksum checksum = new HuffChecksum();
+			ExecutorService pool = Executors.newFixedThreadPool(myThreads);
+			ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+			ArrayDeque<Integer> sizes = new ArrayDeque<>();
+			try {
+				for (long k = 0; k < count; k++) {
+					long start = k * myBlockSize;
+					int size = (int) Math.min(myBlockSize, length - start);
+					pending.add(pool.submit(() -> {
+						ByteBuffer block = ByteBuffer.allocate(size);
+						readFully(in, block, start);
+						return encodeBlock(block.array(), size, start / myBlockSize);
+					}));
+					sizes.add(size);
+					if (pending.size() >= 2 * myThreads) {
+						int done = sizes.remove();
+						header.putLong(position * BITS_PER_WORD).putInt(done);
+						position += writeRecord(out, position, done, await(pending.remove()), checksum);
+					}
+				}
+				while (!pending.isEmpty()) {
+					int done = sizes.remove();
+					header.putLong(position * BITS_PER_WORD).putInt(done);
+					position += writeRecord(out, position, done, await(pending.remove()), checksum);
+				}
+			}
+			finally {
+				pool.shutdownNow();
+			}
+			ByteBuffer end = ByteBuffer.allocate(2 * BITS_PER_INT / BITS_PER_WORD);
+			end.putInt(0);
+			if (myChecksum) {
+				end.putInt(checksum.value());
+			}
+			end.flip();
+			writeFully(out, end, position);
+			header.flip();
+			writeFully(out, header, 0);
+			lap(stats, HuffStats.Phase.CODE);
+			if (stats != null) {
+				stats.finish(length * BITS_PER_WORD, (position + end.limit()) * BITS_PER_WORD);
+			}
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+		lap(stats, HuffStats.Phase.IO);
+		report(stats, HUFF_INDEXED);
+	}
+	
+	private long writeRecord(FileChannel out, long position, int size, byte[] encoded, HuffChecksum checksum)
+			throws IOException {
+		if (myChecksum) {
+			checksum.add(blockChecksum(encoded), size);
+		}
+		ByteBuffer record = ByteBuffer.allocate(BLOCK_RECORD_BYTES);
+		record.putInt(size).putInt(encoded.length).flip();
+		writeFully(out, record, position);
+		writeFully(out, ByteBuffer.wrap(encoded), position + BLOCK_RECORD_BYTES);
+		return BLOCK_RECORD_BYTES + encoded.length;
+	}
+	
+	/**
+	 * Decompresses a file written by compressIndexed, decoding blocks
+	 * on setThreads threads. Each thread reads its block at the offset
+	 * recorded in the index and writes the decoded bytes directly to
+	 * their place in outFile.
+	 *
+	 * @param inFile is a file written by compressIndexed
+	 * @param outFile is where the decompressed file is written
+	 */
+	public void decompressParallel(File inFile, File outFile) {
+		HuffStats stats = startStats(false, null, null);
+		try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+			 FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE,
+					 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer index = readIndex(in);
+			int flags = checkBlockFlags(index.getInt());
+			int count = index.getInt();
+			
+			ExecutorService pool = Executors.newFixedThreadPool(myThreads);
+			List<Future<Integer>> pending = new ArrayList<>();
+			List<Integer> sizes = new ArrayList<>();
+			try {
+				long target = 0;
+				for (int k = 0; k < count; k++) {
+					long position = index.getLong() / BITS_PER_WORD;
+					int size = index.getInt();
+					long start = target;
+					int number = k;
+					// each block returns its checksum, combined below in file order
+					pending.add(pool.submit(() -> {
+						byte[] encoded = readRecord(in, position, size);
+						byte[] decoded;
+						try {
+							decoded = decodeBlock(encoded, size, flags);
+						}
+						catch (HuffException e) {
+							throw new HuffException("block " + number + " at byte " + start + ": " + e.getMessage());
+						}
+						writeFully(out, ByteBuffer.wrap(decoded), start);
+						return (flags & FLAG_CRC) != 0 ? blockChecksum(encoded) : 0;
+					}));
+					sizes.add(size);
+					target += size;
+				}
+				HuffChecksum checksum = new HuffChecksum();
+				for (int k = 0; k < count; k++) {
+					checksum.add(await(pending.get(k)), sizes.get(k));
+				}
+				if ((flags & FLAG_CRC) != 0) {
+					ByteBuffer trailer = ByteBuffer.allocate(BITS_PER_INT / BITS_PER_WORD);
+					readFully(in, trailer, in.size() - trailer.capacity());
+					trailer.flip();
+					checkFileChecksum(trailer.getInt(), checksum);
+				}
+				lap(stats, HuffStats.Phase.CODE);
+				if (stats != null) {
+					stats.finish(in.size() * BITS_PER_WORD, target * BITS_PER_WORD);
+				}
+			}
+			finally {
+				pool.shutdownNow();
+			}
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+		lap(stats, HuffStats.Phase.IO);
+		report(stats, HUFF_INDEXED);
+	}
+	
+	/**
+	 * Decompresses length bytes of the original of a file written by
+	 * compressIndexed, starting at byte offset, without decoding the rest.
+	 * The index gives the original size and position of every block, so
+	 * the blocks holding the range are found by a binary search over
+	 * their starts and read with positional reads; only those blocks are
+	 * decoded, so the cost depends on the range and the block size, not
+	 * on the size of the file. setBlockSize sets how far apart these
+	 * checkpoints are when compressing: smaller blocks make short reads
+	 * cheaper and compress a little worse. Each block's checksum is
+	 * checked if it has one; the checksum of the whole file is not.
+	 *
+	 * @param inFile is a file written by compressIndexed
+	 * @param offset is the first byte of the original returned
+	 * @param length is the number of bytes returned
+	 * @return the bytes of the original in [offset, offset + length),
+	 * fewer if the original ends first
+	 * @throws HuffException if inFile is not a HUFF_INDEXED file or a block
+	 * in the range is corrupt
+	 */
+	public byte[] decompressRange(File inFile, long offset, int length) {
+		if (offset < 0 || length < 0) {
+			throw new IllegalArgumentException("bad range, offset " + offset + " length " + length);
+		}
+		HuffStats stats = startStats(false, null, null);
+		try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer index = readIndex(in);
+			int flags = checkBlockFlags(index.getInt());
+			int count = index.getInt();
+			// starts[k] is the offset in the original of block k
+			long[] starts = new long[count + 1];
+			for (int k = 0; k < count; k++) {
+				int size = index.getInt(INDEXED_HEADER_BYTES + k * INDEX_ENTRY_BYTES + Long.BYTES);
+				if (size <= 0) {
+					throw new HuffException("bad block index, block " + k + " has size " + size);
+				}
+				starts[k + 1] = starts[k] + size;
+			}
+			long end = Math.min(starts[count], offset + length);
+			byte[] range = new byte[(int) Math.max(0, end - offset)];
+			lap(stats, HuffStats.Phase.HEADER);
+			
+			long bitsIn = (long) index.capacity() * BITS_PER_WORD;
+			int block = Arrays.binarySearch(starts, 0, count, offset);
+			if (block < 0) {
+				block = -block - 2;	// the block whose start comes before offset
+			}
+			for (long at = offset; at < end; block++) {
+				int entry = INDEXED_HEADER_BYTES + block * INDEX_ENTRY_BYTES;
+				long position = index.getLong(entry) / BITS_PER_WORD;
+				int size = index.getInt(entry + Long.BYTES);
+				byte[] encoded = readRecord(in, position, size);
+				byte[] decoded;
+				try {
+					decoded = decodeBlock(encoded, size, flags);
+				}
+				catch (HuffException e) {
+					throw new HuffException("block " + block + " at byte " + starts[block] + ": " + e.getMessage());
+				}
+				int from = (int) (at - starts[block]);
+				int taken = (int) Math.min(size - from, end - at);
+				System.arraycopy(decoded, from, range, (int) (at - offset), taken);
+				at += taken;
+				bitsIn += (long) (BLOCK_RECORD_BYTES + encoded.length) * BITS_PER_WORD;
+			}
+			lap(stats, HuffStats.Phase.CODE);
+			if (stats != null) {
+				stats.finish(bitsIn, (long) range.length * BITS_PER_WORD);
+			}
+			lap(stats, HuffStats.Phase.IO);
+			report(stats, HUFF_INDEXED);
+			return range;
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+	}
+	
+	/**
+	 * Read the header and index of a HUFF_INDEXED file
+	 * @return the header and index, positioned after the magic number
+	 * @throws HuffException if in is not a HUFF_INDEXED file
+	 */
+	private static ByteBuffer readIndex(FileChannel in) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(INDEXED_HEADER_BYTES);
+		readFully(in, header, 0);
+		header.flip();
+		int magic = header.getInt();
+		if (magic != HUFF_INDEXED) {
+			throw new HuffException("Invalid header" + magic);
+		}
+		int count = header.getInt(2 * BITS_PER_INT / BITS_PER_WORD);
+		if (count < 0 || count > (Integer.MAX_VALUE - INDEXED_HEADER_BYTES) / INDEX_ENTRY_BYTES) {
+			throw new HuffException("bad block count " + count);
+		}
+		ByteBuffer index = ByteBuffer.allocate(INDEXED_HEADER_BYTES + count * INDEX_ENTRY_BYTES);
+		index.put(header.rewind());
+		readFully(in, index, INDEXED_HEADER_BYTES);
+		index.position(BITS_PER_INT / BITS_PER_WORD);
+		return index;
+	}
+	
+	private byte[] readRecord(FileChannel in, long position, int size) throws IOException {
+		ByteBuffer record = ByteBuffer.allocate(BLOCK_RECORD_BYTES);
+		readFully(in, record, position);
+		record.flip();
+		int recorded = record.getInt();
+		int length = record.getInt();
+		if (recorded != size || length < 0) {
+			throw new HuffException("block index does not match block at " + position);
+		}
+		ByteBuffer encoded = ByteBuffer.allocate(length);
+		readFully(in, encoded, position + BLOCK_RECORD_BYTES);
+		return encoded.array();
+	}
+	
+	private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = in.read(buffer, position);
+			if (read == -1) {
+				throw new HuffException("bad input, file truncated");
+			}
+			position += read;
+		}
+	}
+	
+	private static void writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += out.write(buffer, position);
+		}
+	}
 	
-}	
 //String path="";
 	
 	/**
@@ -181,24 +1801,65 @@ public class HuffProcessor {
 	 */
 	public void decompress(BitInputStream in, BitOutputStream out){
 		//the "out" will have sequence of characters after this method decompresses the  "in"
+		HuffStats stats = startStats(false, in, out);
 		
 		int bits = in.readBits(BITS_PER_INT);// Reads and returns the next single bit of input from this stream.
 		
-		if(bits != HUFF_TREE) {//if the bit is not a hufftree
-			throw new HuffException("Invalid header"+bits);
-		} //exception thrown when file of compressed bits does not start with 32 bit value.
-     if(bits==-1) throw new HuffException("Invalid header" + bits);
-		
-		
-		HuffNode head=readTreeHeader(in);//defining the head or the root of the compressed file that will be stored in the out.
-		//we define the head/root by using the readTreeHeader method created above.
-		//
-		readCompressedBits(head, in, out);//using the root we get from the previous line of code, we read the compressed file by 
-		//traversing through the tree of the compressed(0) file and by mimicking the arrangement of the tree, it creates a tree for the decomprssed file
-		//and store it in the out. Thus the 
-		out.close();//This closes this stream for reading otherwise throws error, if we cannot 
+		if (bits == HUFF_BLOCKS) {// written by compressBlocks, one tree per block
+			readBlocks(in, out);
+		}
+		else if (bits == HUFF_INDEXED) {// written by compressIndexed, blocks follow the index
+			readIndexedBlocks(in, out);
+		}
+		else if (bits == HUFF_CANON) {// header holds canonical code lengths instead of a tree
+			decodeWith(readCodes(in, true), in, out, null, stats);
+		}
+		else if (bits == HUFF_CHECKED) {// flags and a checksum of the original come before the header
+			readCheckedFile(in, out, stats);
+		}
+		else if (bits == HUFF_MODEL) {// codes come from a model added with addModel
+			readModelFile(in, out, stats);
+		}
+		else if (bits == HUFF_CONTEXT) {// one table per previous byte
+			readContextFile(in, out, stats);
+		}
+		else if (bits == HUFF_WIDE) {// symbols of some other width than bytes
+			readWideFile(in, out, stats);
+		}
+		else if (bits == HUFF_ADAPTIVE) {// written by compressAdaptive, codes rebuilt as it is read
+			HuffAdaptiveInputStream.decode(in, out);
+		}
+		else {
+			if(bits != HUFF_TREE) {//if the bit is not a hufftree
+				throw new HuffException("Invalid header"+bits);
+			} //exception thrown when file of compressed bits does not start with 32 bit value.
+	     if(bits==-1) throw new HuffException("Invalid header" + bits);
+			
+			
+			HuffNode head=readTreeHeader(in);//defining the head or the root of the compressed file that will be stored in the out.
+			//we define the head/root by using the readTreeHeader method created above.
+			//
+			readCompressedBits(head, in, out, stats);//using the root we get from the previous line of code, we read the compressed file by 
+			//traversing through the tree of the compressed(0) file and by mimicking the arrangement of the tree, it creates a tree for the decomprssed file
+			//and store it in the out. Thus the 
+		}
+		closeAndReport(stats, bits, null, out);//This closes this stream for reading otherwise throws error, if we cannot 
 		// close the out
 	}
+	
+	/**
+	 * Decode the rest of in with codes whose header has just been read,
+	 * timing the header, building the decoder and decoding
+	 * @param checksum is updated with the bytes written, or is null
+	 */
+	private void decodeWith(HuffCodes codings, BitInputStream in, BitOutputStream out, Checksum checksum,
+			HuffStats stats) {
+		lap(stats, HuffStats.Phase.HEADER);
+		used(stats, codings);
+		HuffDecoder decoder = new HuffDecoder(codings);
+		lap(stats, HuffStats.Phase.BUILD);
+		decoder.decode(in, out, checksum);
+	}
 	/**
 	 * Basiclly, this method reads the bit sequence representing tree or "in"
 	 * @param in, which is the tree which coded character in terms of path defined by 0 and one
@@ -232,43 +1893,172 @@ public class HuffProcessor {
     	else {
     		int val = in.readBits(BITS_PER_WORD + 1);//read the first nine characters stored in the "in". Assume the val 
     		//represented the ascii number
+    		if (val < 0 || val > PSEUDO_EOF) {
+    			// -1 at the end of the input, or nine bits that are no symbol
+    			throw new HuffException("illegal leaf value " + val + " in tree header");
+    		}
     		return new HuffNode(val,0,null,null);//now we put that ASCII code in the leaf.
     		
     	}
 
 } 
-  private void readCompressedBits(HuffNode root,BitInputStream in,BitOutputStream out) {
-
-    	HuffNode current =  root; // the root node
-    	while (true) {
-    		int bits = in.readBits(1);//,reads and return the first bit
-    		if (bits == -1) {
-    			throw new HuffException("bad input, no PSEUDO_EOF");
-    		}
-    		else { 
-    			if (bits == 0) {//if bit is 0, that means the node in the "in" is not a leaf node
-    				current = current.myLeft; //current get the left node, note 0 means turn to the left else to the right
-    			}
-    			else {
-    				current = current.myRight; //if bits is 1, go to the right
-    			}
-    			
-
-    			if (current.myLeft == null && current.myRight == null) {//if we reach at the leaf, we get the value in terms bits.
-    				// Then we write the value in the "out" in-terms of eight bits
+  /**
+   * Decode the rest of a HUFF_CHECKED file, checksumming the bytes
+   * written as they are decoded
+   */
+  private void readCheckedFile(BitInputStream in, BitOutputStream out, HuffStats stats) {
+	  int flags = checkBlockFlags(in.readBits(BITS_PER_INT));
+	  if ((flags & ~(FLAG_CANONICAL | FLAG_CRC)) != 0) {
+		  throw new HuffException("unsupported flags " + flags);
+	  }
+	  CRC32C crc = null;
+	  int expected = 0;
+	  if ((flags & FLAG_CRC) != 0) {
+		  expected = in.readBits(BITS_PER_INT);
+		  crc = new CRC32C();
+	  }
+	  decodeWith(readCodes(in, (flags & FLAG_CANONICAL) != 0), in, out, crc, stats);
+	  if (crc != null && (int) crc.getValue() != expected) {
+		  throw new HuffException("checksum does not match, file is corrupt");
+	  }
+  }
+  
+  /**
+   * Decode the rest of a HUFF_MODEL file with the model it names
+   */
+  private void readModelFile(BitInputStream in, BitOutputStream out, HuffStats stats) {
+	  int word = in.readBits(BITS_PER_INT);
+	  int flags = word >>> 24;
+	  int id = word & HuffModel.MAX_ID;
+	  if ((flags & ~FLAG_CRC) != 0) {
+		  throw new HuffException("unsupported model flags " + flags);
+	  }
+	  HuffModel model = myModels.get(id);
+	  if (model == null) {
+		  throw new HuffException("compressed with model " + id + ", which has not been added");
+	  }
+	  CRC32C crc = null;
+	  int expected = 0;
+	  if ((flags & FLAG_CRC) != 0) {
+		  expected = in.readBits(BITS_PER_INT);
+		  crc = new CRC32C();
+	  }
+	  // the model's decoder is built already
+	  lap(stats, HuffStats.Phase.HEADER);
+	  used(stats, model.codes());
+	  model.decoder().decode(in, out, crc);
+	  if (crc != null && (int) crc.getValue() != expected) {
+		  throw new HuffException("checksum does not match, file is corrupt");
+	  }
+  }
+  
+  /**
+   * Decode the rest of a HUFF_CONTEXT file, written by compressContexts
+   */
+  private void readContextFile(BitInputStream in, BitOutputStream out, HuffStats stats) {
+	  int flags = in.readBits(BITS_PER_INT);
+	  if ((flags & ~FLAG_CRC) != 0) {
+		  throw new HuffException("unsupported context flags " + flags);
+	  }
+	  CRC32C crc = null;
+	  int expected = 0;
+	  if ((flags & FLAG_CRC) != 0) {
+		  expected = in.readBits(BITS_PER_INT);
+		  crc = new CRC32C();
+	  }
+	  HuffCodes shared = readContextTable(in);
+	  HuffCodes[] codings = new HuffCodes[ALPH_SIZE];
+	  for (int context = 0; context < ALPH_SIZE; context++) {
+		  codings[context] = readContextTable(in);
+	  }
+	  lap(stats, HuffStats.Phase.HEADER);
+	  used(stats, shared);
+	  HuffDecoder sharedDecoder = shared == null ? null : new HuffDecoder(shared, CONTEXT_TABLE_BITS);
+	  HuffDecoder[] contexts = new HuffDecoder[ALPH_SIZE];
+	  for (int context = 0; context < ALPH_SIZE; context++) {
+		  used(stats, codings[context]);
+		  contexts[context] = codings[context] == null ? sharedDecoder
+				  : new HuffDecoder(codings[context], CONTEXT_TABLE_BITS);
+	  }
+	  lap(stats, HuffStats.Phase.BUILD);
+	  HuffDecoder.decode(contexts, in, out, crc);
+	  if (crc != null && (int) crc.getValue() != expected) {
+		  throw new HuffException("checksum does not match, file is corrupt");
+	  }
+  }
+  
+  /**
+   * Decode the rest of a HUFF_WIDE file, written by compressWide
+   */
+  private void readWideFile(BitInputStream in, BitOutputStream out, HuffStats stats) {
+	  int flags = in.readBits(BITS_PER_INT);
+	  if ((flags & ~FLAG_CRC) != 0) {
+		  throw new HuffException("unsupported wide flags " + flags);
+	  }
+	  CRC32C crc = null;
+	  int expected = 0;
+	  if ((flags & FLAG_CRC) != 0) {
+		  expected = in.readBits(BITS_PER_INT);
+		  crc = new CRC32C();
+	  }
+	  int word = in.readBits(BITS_PER_INT);
+	  int width = word >>> 16;
+	  int tailBits = word & 0xffff;
+	  if (word == -1 || width < 1 || width > MAX_SYMBOL_WIDTH || tailBits >= width) {
+		  throw new HuffException("bad input, bad symbol width " + width);
+	  }
+	  int tail = tailBits == 0 ? 0 : in.readBits(tailBits);
+	  int symbols = in.readBits(width + 1);
+	  int lengthBits = in.readBits(HuffCodes.WIDTH_BITS) + 1;
+	  if (tail == -1 || symbols == -1 || symbols > (1 << width) || lengthBits == 0) {
+		  throw new HuffException("bad input, wide header truncated");
+	  }
+	  int[] values = new int[symbols];
+	  int[] lengths = new int[symbols + 1];
+	  lengths[symbols] = in.readBits(lengthBits);
+	  int symbol = -1;
+	  for (int k = 0; k < symbols; k++) {
+		  int gap = HuffCodes.readGamma(in);
+		  int length = in.readBits(lengthBits);
+		  if (gap >= (1 << width) - symbol || length <= 0) {
+			  throw new HuffException("bad input, bad lengths header");
+		  }
+		  symbol += gap;
+		  values[k] = symbol;
+		  lengths[k] = length;
+	  }
+	  if (lengths[symbols] <= 0) {
+		  throw new HuffException("bad input, bad lengths header");
+	  }
+	  HuffCodes codings = new HuffCodes(lengths);
+	  lap(stats, HuffStats.Phase.HEADER);
+	  used(stats, codings);
+	  HuffDecoder decoder = new HuffDecoder(codings);
+	  lap(stats, HuffStats.Phase.BUILD);
+	  decoder.decode(in, out, values, width, tail, tailBits, crc);
+	  if (crc != null && (int) crc.getValue() != expected) {
+		  throw new HuffException("checksum does not match, file is corrupt");
+	  }
+  }
 
-    				if (current.myValue == PSEUDO_EOF) 
-    					break;
-    				// out of loop
-    				else {
-    					out.writeBits(BITS_PER_WORD, current.myValue);//
-    					current = root; //start from the root again and do the traversal in the while loop
-    					//}
-    				}
-    			}
-    		}//return current;
-    	}
-
-	
+  /**
+   * Read a presence bit and, if it is set, the code lengths that follow
+   * @return codes with the lengths, or null if the bit is not set
+   */
+  private HuffCodes readContextTable(BitInputStream in) {
+	  int present = in.readBits(1);
+	  if (present == -1) {
+		  throw new HuffException("bad input, context headers end early");
+	  }
+	  if (present == 0) {
+		  return null;
+	  }
+	  return new HuffCodes(HuffCodes.readLengths(in));
+  }
+  
+  private void readCompressedBits(HuffNode root,BitInputStream in,BitOutputStream out, HuffStats stats) {
+	  // the decoder resolves up to HuffDecoder.TABLE_BITS bits per table lookup
+	  // instead of following one child pointer per bit read
+	  decodeWith(new HuffCodes(root), in, out, null, stats);
     }	
 }
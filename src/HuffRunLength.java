@@ -0,0 +1,87 @@
+/**
+ * Run-length transform: a run of four or more equal bytes is written as
+ * four of the byte followed by a count of the further repeats (0 to
+ * MAX_EXTRA). Shorter runs are copied unchanged, so text costs nothing,
+ * while long runs, such as flat regions of images, padding in logs or
+ * the zeros move-to-front makes of sorted blocks, shrink to 5 bytes per
+ * MAX_EXTRA + 4. Data of nothing but runs of exactly four grows by a
+ * quarter.
+ */
+
+public class HuffRunLength implements HuffTransform {
+
+	public static final int MIN_RUN = 4;
+	public static final int MAX_EXTRA = 255;
+
+	@Override
+	public int id() {
+		return RUN_LENGTH;
+	}
+
+	@Override
+	public int maxLength(int length) {
+		return length + (length + MIN_RUN - 1) / MIN_RUN;
+	}
+
+	@Override
+	public int forward(byte[] in, int length, byte[] out) {
+		int o = 0;
+		int k = 0;
+		while (k < length) {
+			byte b = in[k];
+			int run = 1;
+			while (k + run < length && in[k + run] == b && run < MIN_RUN + MAX_EXTRA) {
+				run += 1;
+			}
+			if (run >= MIN_RUN) {
+				for (int r = 0; r < MIN_RUN; r++) {
+					out[o++] = b;
+				}
+				out[o++] = (byte) (run - MIN_RUN);
+			}
+			else {
+				for (int r = 0; r < run; r++) {
+					out[o++] = b;
+				}
+			}
+			k += run;
+		}
+		return o;
+	}
+
+	@Override
+	public int inverse(byte[] in, int length, byte[] out) {
+		int o = 0;
+		int k = 0;
+		int same = 0;
+		byte previous = 0;
+		while (k < length) {
+			byte b = in[k++];
+			if (same > 0 && b == previous) {
+				same += 1;
+			}
+			else {
+				same = 1;
+				previous = b;
+			}
+			if (o >= out.length) {
+				throw new HuffException("bad input, run-length output too long");
+			}
+			out[o++] = b;
+			if (same == MIN_RUN) {
+				if (k == length) {
+					throw new HuffException("bad input, run-length count missing");
+				}
+				int extra = in[k++] & 0xff;
+				if (extra > out.length - o) {
+					throw new HuffException("bad input, run-length output too long");
+				}
+				for (int r = 0; r < extra; r++) {
+					out[o++] = b;
+				}
+				same = 0;
+			}
+		}
+		return o;
+	}
+}
@@ -0,0 +1,216 @@
+/**
+ * What one compress or decompress call did and where its time went,
+ * passed to a HuffMetrics when the call finishes. Time is split into
+ * phases by reading the clock between them, and the time the bit streams
+ * spent reading and writing is moved from the phase it happened in to
+ * IO, so CODE is the time spent coding and not waiting.
+ * <P>
+ * Formats written a block at a time (HUFF_BLOCKS, HUFF_INDEXED) and
+ * HUFF_ADAPTIVE count, build and write headers inside the coding loop, so
+ * for them all of that is CODE, and header bits and code lengths are 0.
+ */
+
+public class HuffStats {
+
+	/**
+	 * The phases of a call. Compressing counts symbols, builds codes from
+	 * the counts, writes the header and codes the input; decompressing
+	 * reads the header, builds decoding tables and decodes.
+	 */
+	public enum Phase {
+		COUNT, BUILD, HEADER, CODE, IO
+	}
+
+	private final boolean myCompress;
+	private final long[] myNanos = new long[Phase.values().length];
+	private int myFormat;
+	private long myBytesIn;
+	private long myBytesOut;
+	private long myHeaderBits;
+	private long mySymbols;
+	private int myMaxCodeLength;
+
+	private BitInputStream myIn;
+	private BitOutputStream myOut;
+	private long myMark;
+	private long myIo;
+	private long myBits;
+	private HuffEvent myEvent;
+
+	HuffStats(boolean compress) {
+		myCompress = compress;
+		myMark = System.nanoTime();
+	}
+
+	/**
+	 * Time the I/O of the streams a call reads and writes
+	 */
+	void attach(BitInputStream in, BitOutputStream out) {
+		myIn = in;
+		myOut = out;
+		in.setTimed(true);
+		out.setTimed(true);
+		myBits = bits();
+	}
+
+	// the bits of the side a header is on: written when compressing,
+	// read when decompressing
+	private long bits() {
+		return myCompress ? myOut.bitsWritten() : myIn.bitsUsed();
+	}
+
+	/**
+	 * End the current phase: the time since the last lap, less the I/O
+	 * in it, is added to phase, and so are the bits written or read in
+	 * it when phase is HEADER
+	 */
+	void lap(Phase phase) {
+		long now = System.nanoTime();
+		long io = 0;
+		if (myIn != null) {
+			io = myIn.ioNanos() + myOut.ioNanos();
+			long bits = bits();
+			if (phase == Phase.HEADER) {
+				myHeaderBits += bits - myBits;
+			}
+			myBits = bits;
+		}
+		long spent = io - myIo;
+		myNanos[phase.ordinal()] += now - myMark - spent;
+		myNanos[Phase.IO.ordinal()] += spent;
+		myMark = now;
+		myIo = io;
+	}
+
+	/**
+	 * Take the sizes from the streams once the call has closed them,
+	 * unless they have been given
+	 */
+	void finish() {
+		if (myIn != null) {
+			finish(myIn.bitsUsed(), myOut.bitsWritten());
+		}
+	}
+
+	/**
+	 * Record the sizes of a call; the symbols coded are the original bytes
+	 */
+	void finish(long bitsIn, long bitsOut) {
+		myBytesIn = (bitsIn + HuffProcessor.BITS_PER_WORD - 1) / HuffProcessor.BITS_PER_WORD;
+		myBytesOut = (bitsOut + HuffProcessor.BITS_PER_WORD - 1) / HuffProcessor.BITS_PER_WORD;
+		mySymbols = myCompress ? myBytesIn : myBytesOut;
+		myIn = null;
+		myOut = null;
+	}
+
+	void format(int format) {
+		myFormat = format;
+	}
+
+	void codes(HuffCodes codes) {
+		myMaxCodeLength = Math.max(myMaxCodeLength, codes.maxLength());
+	}
+
+	/**
+	 * Keep the event begun for this call until it is committed
+	 */
+	void event(HuffEvent event) {
+		myEvent = event;
+	}
+
+	HuffEvent event() {
+		return myEvent;
+	}
+
+	/**
+	 * @return true for a compress call, false for decompress
+	 */
+	public boolean isCompress() {
+		return myCompress;
+	}
+
+	/**
+	 * @return the magic number of the compressed format, e.g., HUFF_TREE
+	 */
+	public int format() {
+		return myFormat;
+	}
+
+	/**
+	 * @param phase is the phase timed
+	 * @return nanoseconds spent in phase
+	 */
+	public long nanos(Phase phase) {
+		return myNanos[phase.ordinal()];
+	}
+
+	/**
+	 * @return nanoseconds for the whole call
+	 */
+	public long totalNanos() {
+		long total = 0;
+		for (long nanos : myNanos) {
+			total += nanos;
+		}
+		return total;
+	}
+
+	/**
+	 * @return bytes read: the original bytes when compressing, the
+	 * compressed bytes when decompressing
+	 */
+	public long bytesIn() {
+		return myBytesIn;
+	}
+
+	/**
+	 * @return bytes written
+	 */
+	public long bytesOut() {
+		return myBytesOut;
+	}
+
+	/**
+	 * @return bits of header written or read before the codes, including
+	 * the magic number and flags
+	 */
+	public long headerBits() {
+		return myHeaderBits;
+	}
+
+	/**
+	 * @return number of bytes coded, not counting PSEUDO_EOF
+	 */
+	public long symbols() {
+		return mySymbols;
+	}
+
+	/**
+	 * @return symbols coded per second over the whole call
+	 */
+	public double symbolsPerSecond() {
+		long total = totalNanos();
+		return total == 0 ? 0 : mySymbols * 1e9 / total;
+	}
+
+	/**
+	 * @return the longest code used, the depth of the deepest leaf of the
+	 * tree; for order-1 coding the longest over all the tables
+	 */
+	public int maxCodeLength() {
+		return myMaxCodeLength;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%s %08x: %d bytes to %d bytes, %d header bits, max code %d, %.1f ms",
+				myCompress ? "compress" : "decompress", myFormat, myBytesIn, myBytesOut, myHeaderBits,
+				myMaxCodeLength, totalNanos() / 1e6));
+		for (Phase phase : Phase.values()) {
+			sb.append(String.format(" %s %.1f", phase.name().toLowerCase(), nanos(phase) / 1e6));
+		}
+		sb.append(String.format(", %.1f M symbols/s", symbolsPerSecond() / 1e6));
+		return sb.toString();
+	}
+}
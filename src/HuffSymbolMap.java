@@ -0,0 +1,169 @@
+import java.util.Arrays;
+
+/**
+ * A map from symbols (ints of 0 or more) to longs, used as the histogram
+ * of alphabets too large to count in an array, such as the 65,536
+ * symbols of 16-bit data of which only a few hundred may occur. Keys and
+ * values are kept in two primitive arrays with open addressing: a key is
+ * hashed by multiplying it by the golden ratio (Fibonacci hashing), which
+ * spreads consecutive symbols over the table, and collisions take the
+ * next free slot. The table is at most half full, so a lookup seldom
+ * probes more than one or two slots, and it doubles when it fills.
+ * Nothing is boxed and adding to a key allocates nothing.
+ * <P>
+ * An instance is not thread-safe.
+ */
+
+public class HuffSymbolMap {
+
+	private static final int EMPTY = -1;
+	private static final int GOLDEN = 0x9e3779b9;
+	private static final int MIN_CAPACITY = 16;
+
+	private int[] myKeys;
+	private long[] myValues;
+	private int mySize;
+	// top bits of the product are the slot, so this is 32 - log2(capacity)
+	private int myShift;
+
+	/**
+	 * Create an empty map
+	 */
+	public HuffSymbolMap() {
+		this(MIN_CAPACITY / 2);
+	}
+
+	/**
+	 * Create an empty map with room for expected keys before it grows
+	 * @param expected is the number of keys expected
+	 */
+	public HuffSymbolMap(int expected) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < 2 * expected) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		myKeys = new int[capacity];
+		Arrays.fill(myKeys, EMPTY);
+		myValues = new long[capacity];
+		myShift = Integer.numberOfLeadingZeros(capacity - 1);
+		mySize = 0;
+	}
+
+	private int slot(int key) {
+		int mask = myKeys.length - 1;
+		int slot = (key * GOLDEN) >>> myShift;
+		while (myKeys[slot] != key && myKeys[slot] != EMPTY) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Add delta to the value of key, which starts at 0
+	 * @param key is a symbol, 0 or more
+	 * @param delta is added to the value
+	 */
+	public void add(int key, long delta) {
+		int slot = slot(key);
+		if (myKeys[slot] == EMPTY) {
+			if (2 * (mySize + 1) > myKeys.length) {
+				grow();
+				slot = slot(key);
+			}
+			myKeys[slot] = key;
+			mySize += 1;
+		}
+		myValues[slot] += delta;
+	}
+
+	/**
+	 * Set the value of key
+	 * @param key is a symbol, 0 or more
+	 * @param value is the new value
+	 */
+	public void put(int key, long value) {
+		int slot = slot(key);
+		if (myKeys[slot] == EMPTY) {
+			if (2 * (mySize + 1) > myKeys.length) {
+				grow();
+				slot = slot(key);
+			}
+			myKeys[slot] = key;
+			mySize += 1;
+		}
+		myValues[slot] = value;
+	}
+
+	/**
+	 * Return the value of key, 0 for keys never added
+	 * @param key is a symbol
+	 * @return the value of key
+	 */
+	public long get(int key) {
+		return get(key, 0);
+	}
+
+	/**
+	 * Return the value of key, or absent if key was never added
+	 * @param key is a symbol
+	 * @param absent is returned for a key that is not in the map
+	 * @return the value of key
+	 */
+	public long get(int key, long absent) {
+		if (key < 0) {
+			return absent;
+		}
+		int slot = slot(key);
+		return myKeys[slot] == EMPTY ? absent : myValues[slot];
+	}
+
+	/**
+	 * @return number of keys in the map
+	 */
+	public int size() {
+		return mySize;
+	}
+
+	/**
+	 * Return the keys in increasing order
+	 * @return a new array of size() keys
+	 */
+	public int[] keys() {
+		int[] keys = new int[mySize];
+		int n = 0;
+		for (int key : myKeys) {
+			if (key != EMPTY) {
+				keys[n++] = key;
+			}
+		}
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	/**
+	 * Remove every key, keeping the room the map has grown to
+	 */
+	public void clear() {
+		Arrays.fill(myKeys, EMPTY);
+		Arrays.fill(myValues, 0);
+		mySize = 0;
+	}
+
+	private void grow() {
+		int[] keys = myKeys;
+		long[] values = myValues;
+		allocate(2 * keys.length);
+		for (int k = 0; k < keys.length; k++) {
+			if (keys[k] != EMPTY) {
+				int slot = slot(keys[k]);
+				myKeys[slot] = keys[k];
+				myValues[slot] = values[k];
+				mySize += 1;
+			}
+		}
+	}
+}
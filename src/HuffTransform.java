@@ -0,0 +1,72 @@
+/**
+ * A reversible transform applied to each block of the block formats
+ * before Huffman coding, so that Huffman codes see data with fewer
+ * distinct patterns: runs shortened, recent bytes made small, similar
+ * contexts brought together. Transforms work on one block at a time, so
+ * memory is bounded by the block size, and are chained in the order they
+ * are given to HuffProcessor.setTransforms. The ids of the stages used
+ * are recorded in the flags of the block header, so decompress needs no
+ * settings to undo them.
+ * <P>
+ * Implementations keep no state between calls, so one instance can be
+ * used by every thread encoding or decoding blocks.
+ */
+
+public interface HuffTransform {
+
+	int RUN_LENGTH = 1;
+	int MOVE_TO_FRONT = 2;
+	int BLOCK_SORT = 3;
+
+	/**
+	 * Return the id recorded in headers for this transform
+	 * @return id in [1, 15]
+	 */
+	int id();
+
+	/**
+	 * Return the most bytes forward writes for length bytes
+	 * @param length is the number of bytes transformed
+	 * @return size out must have in forward
+	 */
+	int maxLength(int length);
+
+	/**
+	 * Transform in[0, length) into out
+	 * @param in holds the bytes transformed
+	 * @param length is the number of bytes transformed
+	 * @param out receives the result, at least maxLength(length) bytes
+	 * @return number of bytes written to out
+	 */
+	int forward(byte[] in, int length, byte[] out);
+
+	/**
+	 * Undo forward
+	 * @param in holds bytes written by forward
+	 * @param length is the number of bytes forward wrote
+	 * @param out receives the original bytes
+	 * @return number of bytes written to out
+	 * @throws HuffException if in was not written by forward or the
+	 * original does not fit in out
+	 */
+	int inverse(byte[] in, int length, byte[] out);
+
+	/**
+	 * Return the transform with an id
+	 * @param id is a value returned by id()
+	 * @return a transform that can undo blocks with that id
+	 * @throws HuffException if no transform has the id
+	 */
+	static HuffTransform forId(int id) {
+		switch (id) {
+		case RUN_LENGTH:
+			return new HuffRunLength();
+		case MOVE_TO_FRONT:
+			return new HuffMoveToFront();
+		case BLOCK_SORT:
+			return new HuffBlockSort();
+		default:
+			throw new HuffException("unknown transform " + id);
+		}
+	}
+}